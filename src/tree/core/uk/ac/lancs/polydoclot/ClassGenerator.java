@@ -51,10 +51,13 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.function.Consumer;
 import javax.lang.model.element.AnnotationMirror;
@@ -106,354 +109,388 @@ public final class ClassGenerator {
         for (TypeElement typeDef : ElementFilter
             .typesIn(env.getIncludedElements())) {
             if (config.excludedElements.contains(typeDef)) continue;
+            if (!config.isInShard(typeDef)) continue;
+            writeClass(typeDef);
+        }
+    }
 
-            /* Find out where to write the file documenting this class,
-             * what its URI is, what to call it when the package context
-             * is already known. */
-            final String leafName, shortName;
-            final PackageElement pkg;
-            final Path typeFile;
-            final URI typeLoc = config.locateElement(typeDef);
-            {
-                StringBuilder leafNameBuf =
-                    new StringBuilder(typeDef.getSimpleName());
-                Element container = typeDef;
-                for (;;) {
-                    container = container.getEnclosingElement();
-                    if (container.getKind() == ElementKind.PACKAGE) break;
-                    leafNameBuf.insert(0, '.');
-                    leafNameBuf.insert(0, container.getSimpleName());
-                }
-                shortName = leafNameBuf.toString();
-                leafName = shortName.replace('.', '$');
-
-                assert container.getKind() == ElementKind.PACKAGE;
-                pkg = (PackageElement) container;
+    /**
+     * Generate documentation for a class and its members.
+     * 
+     * @param typeDef the class to document
+     */
+    private void writeClass(TypeElement typeDef) {
+        /* Find out where to write the file documenting this class,
+         * what its URI is, what to call it when the package context
+         * is already known. */
+        final String leafName, shortName;
+        final PackageElement pkg;
+        final Path typeFile;
+        final URI typeLoc = config.locateElement(typeDef);
+        {
+            StringBuilder leafNameBuf =
+                new StringBuilder(typeDef.getSimpleName());
+            Element container = typeDef;
+            for (;;) {
+                container = container.getEnclosingElement();
+                if (container.getKind() == ElementKind.PACKAGE) break;
+                leafNameBuf.insert(0, '.');
+                leafNameBuf.insert(0, container.getSimpleName());
+            }
+            shortName = leafNameBuf.toString();
+            leafName = shortName.replace('.', '$');
 
-                /* Get the directory for this package. */
-                Path pos = config.outputDirectory;
-                for (String component : pkg.getQualifiedName().toString()
-                    .split("\\.")) {
-                    pos = pos.resolve(component);
-                }
+            assert container.getKind() == ElementKind.PACKAGE;
+            pkg = (PackageElement) container;
 
-                /* Append the full class name with the type and slice
-                 * suffixes. */
-                typeFile = pos.resolve(leafName + config.hypertextFileSuffix
-                    + slice.spec.suffix);
+            /* Get the directory for this package. */
+            Path pos = config.outputDirectory;
+            for (String component : pkg.getQualifiedName().toString()
+                .split("\\.")) {
+                pos = pos.resolve(component);
             }
 
-            DocCommentTree typeDoc = config.docTrees.getDocCommentTree(typeDef);
+            /* Append the full class name with the type and slice
+             * suffixes. */
+            typeFile = pos.resolve(leafName + config.hypertextFileSuffix
+                + slice.spec.suffix);
+        }
 
-            config.diagnostic("output.class.item", typeDef);
+        /* Skip the class if its inputs haven't changed, and its
+         * members' pages still exist. */
+        final Map<Element, Path> memberFiles =
+            getMemberFiles(leafName, typeFile, typeDef);
+        if (config.pageManifest != null && config.pageManifest
+            .isCurrent(slice, typeDef, typeFile, memberFiles.values()))
+            return;
 
-            try {
-                Files.createDirectories(typeFile.getParent());
-            } catch (IOException ex) {
-                config.report(Kind.ERROR, typeDef,
-                              "output.class.failure.mkdirs", ex, typeFile);
-                return;
-            }
+        DocCommentTree typeDoc = config.docTrees.getDocCommentTree(typeDef);
 
-            final Escaper escaper =
-                HypertextEscaper.forCData(slice.spec.charset);
-            final Escaper attrEscaper =
-                HypertextEscaper.forAttributes(slice.spec.charset);
-            final OutputContext blockContext = OutputContext
-                .forBlock(config.types, typeLoc, typeDef, escaper, attrEscaper);
-            final SourceContext typeContext = SourceContext.forElement(typeDef);
-
-            /* Set properties for this element. */
-            Properties typeDefProps = new Properties();
-            config.setElementProperties(typeDefProps, typeDef);
-            typeDefProps
-                .setProperty("TITLE.SHORT", slice
-                    .toHypertext(SourceContext.EMPTY,
-                                 OutputContext.plain(config.types, typeLoc,
-                                                     typeDef),
-                                 config.shortTitle));
-
-            /* Write out the file. */
-            try (PrintWriter out = slice.openHypertextFile(typeFile)) {
-                out.printf("<html lang=\"%s\">\n",
-                           slice.spec.locale.toString().replaceAll("_", "-"));
-                out.printf("<head>\n");
-                slice.writeHypertextMeta(out, blockContext);
-                slice
-                    .writeElementMetaLink("index", out::append, blockContext,
-                                          config.elements.getModuleOf(typeDef));
-                do {
-                    Element enc = typeDef.getEnclosingElement();
-                    if (enc == null) break;
-                    switch (enc.getKind()) {
-                    case ENUM:
-                    case CLASS:
-                    case INTERFACE:
-                    case ANNOTATION_TYPE:
-                        slice.writeElementMetaLink("index up", out::append,
-                                                   blockContext, enc);
-                        slice.writeElementMetaLink("index", out::append,
-                                                   blockContext, config.elements
-                                                       .getPackageOf(typeDef));
-                        break;
+        config.diagnostic("output.class.item", typeDef);
 
-                    case PACKAGE:
-                        slice.writeElementMetaLink("index up", out::append,
-                                                   blockContext, enc);
-                        break;
+        try {
+            Files.createDirectories(typeFile.getParent());
+        } catch (IOException ex) {
+            config.report(Kind.ERROR, typeDef,
+                          "output.class.failure.mkdirs", ex, typeFile);
+            return;
+        }
 
-                    default:
-                    }
-                } while (false);
-                out.printf("<title>%s</title>\n",
-                           slice.macroFormat("page.title.class", typeDefProps,
-                                             blockContext.escaper()));
-                slice.writeSummaryAsHypertextDescription(out::append,
-                                                         blockContext
-                                                             .inAttribute(),
-                                                         typeDef);
-                config.writeStyleLinks(out, blockContext);
-
-                out.printf("</head>\n");
-                out.printf("<body class=\"javadoc class %s\">\n",
-                           typeDef.getKind() == ElementKind.ANNOTATION_TYPE ?
-                               "annot" :
-                               typeDef.getKind() == ElementKind.INTERFACE ?
-                                   "iface" :
-                               typeDef.getKind() == ElementKind.ENUM ? "enum" :
-                               "plain");
-
-                slice.writeUserSection(out, blockContext, "forematter",
-                                       "forematter", typeDef);
-                out.printf("<div class=\"javadoc-matter\">\n");
-
-                out.printf("<div class=\"javadoc-head\">\n");
-                out.printf("<h1><span>");
-                slice.toHypertext(out::append, typeContext, blockContext, slice
-                    .macroFormatDoc("page.heading.class", blockContext
-                        .attributeEscaper().escape(typeDefProps)));
-                out.printf("</span></h1>\n");
-                out.printf("<div class=\"javadoc-purpose\"><span>");
-                slice.writeSummaryOrSyntheticDescription(out::append,
-                                                         blockContext,
-                                                         typeContext, typeDef);
-                out.printf("</span></div>\n");
-
-                slice.writeElementQualities(out, blockContext, typeDef);
-                out.printf("</div>\n");
+        final Escaper escaper =
+            HypertextEscaper.forCData(slice.spec.charset);
+        final Escaper attrEscaper =
+            HypertextEscaper.forAttributes(slice.spec.charset);
+        final OutputContext blockContext = OutputContext
+            .forBlock(config.types, typeLoc, typeDef, escaper, attrEscaper);
+        final SourceContext typeContext = SourceContext.forElement(typeDef);
+
+        /* Set properties for this element. */
+        Properties typeDefProps = new Properties();
+        config.setElementProperties(typeDefProps, typeDef);
+        typeDefProps
+            .setProperty("TITLE.SHORT", slice
+                .toHypertext(SourceContext.EMPTY,
+                             OutputContext.plain(config.types, typeLoc,
+                                                 typeDef),
+                             config.shortTitle));
+
+        /* Write out the file. */
+        try (PrintWriter out = slice.openHypertextFile(typeFile)) {
+            out.printf("<html lang=\"%s\">\n",
+                       slice.spec.locale.toString().replaceAll("_", "-"));
+            out.printf("<head>\n");
+            slice.writeHypertextMeta(out, blockContext);
+            slice
+                .writeElementMetaLink("index", out::append, blockContext,
+                                      config.elements.getModuleOf(typeDef));
+            do {
+                Element enc = typeDef.getEnclosingElement();
+                if (enc == null) break;
+                switch (enc.getKind()) {
+                case ENUM:
+                case CLASS:
+                case INTERFACE:
+                case ANNOTATION_TYPE:
+                    slice.writeElementMetaLink("index up", out::append,
+                                               blockContext, enc);
+                    slice.writeElementMetaLink("index", out::append,
+                                               blockContext, config.elements
+                                                   .getPackageOf(typeDef));
+                    break;
 
-                out.printf("<div class=\"javadoc-context\">\n");
-                out.printf("<pre class=\"java\">\n");
-                Consumer<String> core = indent -> {
-                    out.print(blockContext.escape(indent));
-                    writeDeclaration(out, blockContext.inCode(), typeDef,
-                                     indent, 2);
-                    out.print(blockContext.escape(";\n"));
-                };
-                writeDeclarationContext(out, blockContext.inCode(),
-                                        typeDef.getEnclosingElement(), core);
-                out.printf("</pre>\n");
-                out.printf("</div>\n");
+                case PACKAGE:
+                    slice.writeElementMetaLink("index up", out::append,
+                                               blockContext, enc);
+                    break;
 
-                /* Describe type parameters. */
-                writeTypeParams(out, blockContext, typeDef);
-
-                out.printf("<div class=\"javadoc-description\">\n");
-                if (DocUtils.hasDescription(typeDoc, false)) {
-                    out.printf("<h2><span>%s</span></h2>\n", escaper
-                        .escape(slice
-                            .getContent("section.heading.class.description")));
-                    out.printf("<div class=\"body\">\n");
-                    out.printf("<p>%s\n",
-                               slice.toHypertext(typeContext, blockContext,
-                                                 typeDoc.getFullBody()));
-                    out.printf("</div>\n");
+                default:
                 }
-                slice.writeSeeSection(out, typeContext, blockContext, typeDoc);
-                out.printf("</div>\n");
+            } while (false);
+            out.printf("<title>%s</title>\n",
+                       slice.macroFormat("page.title.class", typeDefProps,
+                                         blockContext.escaper()));
+            slice.writeSummaryAsHypertextDescription(out::append,
+                                                     blockContext
+                                                         .inAttribute(),
+                                                     typeDef);
+            config.writeStyleLinks(out, blockContext);
 
-                /* Catalogue all members. */
-                List<TypeElement> staticClasses = new ArrayList<>();
-                List<TypeElement> innerClasses = new ArrayList<>();
-                List<VariableElement> instanceFields = new ArrayList<>();
-                List<VariableElement> staticFields = new ArrayList<>();
-                List<VariableElement> constants = new ArrayList<>();
-                List<ExecutableElement> constructors = new ArrayList<>();
-                List<ExecutableElement> staticMethods = new ArrayList<>();
-                List<ExecutableElement> instanceMethods = new ArrayList<>();
-                for (Element memb : config.elements.getAllMembers(typeDef)) {
-                    /* Skip invisible and excluded elements. */
-                    if (!memb.getModifiers().contains(Modifier.PUBLIC) &&
-                        !memb.getModifiers().contains(Modifier.PROTECTED))
-                        continue;
-                    if (config.excludedElements.contains(memb)) continue;
-
-                    switch (memb.getKind()) {
-                    case CLASS:
-                    case INTERFACE:
-                    case ANNOTATION_TYPE:
-                    case ENUM:
-                        (memb.getModifiers().contains(Modifier.STATIC) ?
-                            staticClasses : innerClasses)
-                                .add((TypeElement) memb);
-                        break;
+            out.printf("</head>\n");
+            out.printf("<body class=\"javadoc class %s\">\n",
+                       typeDef.getKind() == ElementKind.ANNOTATION_TYPE ?
+                           "annot" :
+                           typeDef.getKind() == ElementKind.INTERFACE ?
+                               "iface" :
+                           typeDef.getKind() == ElementKind.ENUM ? "enum" :
+                           "plain");
+
+            slice.writeUserSection(out, blockContext, "forematter",
+                                   "forematter", typeDef);
+            out.printf("<div class=\"javadoc-matter\">\n");
 
-                    case ENUM_CONSTANT:
-                        constants.add((VariableElement) memb);
-                        break;
+            out.printf("<div class=\"javadoc-head\">\n");
+            out.printf("<h1><span>");
+            slice.toHypertext(out::append, typeContext, blockContext, slice
+                .macroFormatDoc("page.heading.class", blockContext
+                    .attributeEscaper().escape(typeDefProps)));
+            out.printf("</span></h1>\n");
+            out.printf("<div class=\"javadoc-purpose\"><span>");
+            slice.writeSummaryOrSyntheticDescription(out::append,
+                                                     blockContext,
+                                                     typeContext, typeDef);
+            out.printf("</span></div>\n");
 
-                    case FIELD:
-                        (memb.getModifiers().contains(Modifier.STATIC) ?
-                            memb.getModifiers().contains(Modifier.FINAL) ?
-                                constants : staticFields :
-                            instanceFields).add((VariableElement) memb);
-                        break;
+            slice.writeElementQualities(out, blockContext, typeDef);
+            out.printf("</div>\n");
 
-                    case CONSTRUCTOR:
-                        constructors.add((ExecutableElement) memb);
-                        break;
+            out.printf("<div class=\"javadoc-context\">\n");
+            out.printf("<pre class=\"java\">\n");
+            Consumer<String> core = indent -> {
+                out.print(blockContext.escape(indent));
+                writeDeclaration(out, blockContext.inCode(), typeDef,
+                                 indent, 2);
+                out.print(blockContext.escape(";\n"));
+            };
+            writeDeclarationContext(out, blockContext.inCode(),
+                                    typeDef.getEnclosingElement(), core);
+            out.printf("</pre>\n");
+            out.printf("</div>\n");
 
-                    case METHOD:
-                        (memb.getModifiers().contains(Modifier.STATIC) ?
-                            staticMethods : instanceMethods)
-                                .add((ExecutableElement) memb);
-                        break;
+            /* Describe type parameters. */
+            writeTypeParams(out, blockContext, typeDef);
 
-                    default:
-                        break;
-                    }
-                }
+            out.printf("<div class=\"javadoc-description\">\n");
+            if (DocUtils.hasDescription(typeDoc, false)) {
+                out.printf("<h2><span>%s</span></h2>\n", escaper
+                    .escape(slice
+                        .getContent("section.heading.class.description")));
+                out.printf("<div class=\"body\">\n");
+                out.printf("<p>%s\n",
+                           slice.toHypertext(typeContext, blockContext,
+                                             typeDoc.getFullBody()));
+                out.printf("</div>\n");
+            }
+            slice.writeSeeSection(out, typeContext, blockContext, typeDoc);
+            out.printf("</div>\n");
 
-                List<Element> producers = new ArrayList<>(config.producers
-                    .getOrDefault(typeDef, Collections.emptySet()));
-                List<Element> consumers = new ArrayList<>(config.consumers
-                    .getOrDefault(typeDef, Collections.emptySet()));
-                List<Element> xforms = new ArrayList<>(config.transformers
-                    .getOrDefault(typeDef, Collections.emptySet()));
-
-                /* Include as constructors the methods that are tagged
-                 * as constructors. TODO: Or maybe they should be listed
-                 * twice...? */
-                final Collection<ExecutableElement> pseudoConstructors;
-                {
-                    pseudoConstructors = config.pseudoConstructors
-                        .getOrDefault(typeDef, Collections.emptySet());
-                    constructors.addAll(pseudoConstructors);
-                }
+            /* Catalogue all members. */
+            List<TypeElement> staticClasses = new ArrayList<>();
+            List<TypeElement> innerClasses = new ArrayList<>();
+            List<VariableElement> instanceFields = new ArrayList<>();
+            List<VariableElement> staticFields = new ArrayList<>();
+            List<VariableElement> constants = new ArrayList<>();
+            List<ExecutableElement> constructors = new ArrayList<>();
+            List<ExecutableElement> staticMethods = new ArrayList<>();
+            List<ExecutableElement> instanceMethods = new ArrayList<>();
+            for (Element memb : config.elements.getAllMembers(typeDef)) {
+                /* Skip invisible and excluded elements. */
+                if (!memb.getModifiers().contains(Modifier.PUBLIC) &&
+                    !memb.getModifiers().contains(Modifier.PROTECTED))
+                    continue;
+                if (config.excludedElements.contains(memb)) continue;
 
-                instanceMethods.removeAll(pseudoConstructors);
-                staticMethods.removeAll(pseudoConstructors);
-                producers.removeAll(pseudoConstructors);
-                xforms.removeAll(pseudoConstructors);
-                producers.removeAll(instanceMethods);
-                producers.removeAll(staticFields);
-                consumers.removeAll(instanceMethods);
-                xforms.removeAll(instanceMethods);
+                switch (memb.getKind()) {
+                case CLASS:
+                case INTERFACE:
+                case ANNOTATION_TYPE:
+                case ENUM:
+                    (memb.getModifiers().contains(Modifier.STATIC) ?
+                        staticClasses : innerClasses)
+                            .add((TypeElement) memb);
+                    break;
 
-                out.print("<table class=\"javadoc-members\" summary=\"");
-                slice
-                    .toHypertext(out::append, SourceContext.EMPTY,
-                                 blockContext.inAttribute(), slice
-                                     .getTreeContent("class-members.table-summary"));
-                out.print("\">\n");
-                out.printf("<caption>%s</caption>\n", escaper
-                    .escape(slice.getContent("class-members.caption")));
-                /* Columns are: modifiers and type variables; return
-                 * type; name; parameters. */
-                writeMemberList(typeDef, "classes static", "static-classes",
-                                out, blockContext, staticClasses,
-                                EnumSet.of(Modifier.STATIC),
-                                pseudoConstructors);
-                writeMemberList(typeDef, "fields static final", "constants",
-                                out, blockContext, constants,
-                                EnumSet.of(Modifier.STATIC, Modifier.FINAL),
-                                pseudoConstructors);
-                writeMemberList(typeDef, "fields static", "static-fields", out,
-                                blockContext, staticFields,
-                                EnumSet.of(Modifier.STATIC),
-                                pseudoConstructors);
-                writeMemberList(typeDef, "methods static", "static-methods",
-                                out, blockContext, staticMethods,
-                                EnumSet.of(Modifier.STATIC),
-                                pseudoConstructors);
-                writeMemberList(typeDef, "constructors", "constructors", out,
-                                blockContext, constructors,
-                                Collections.emptySet(), pseudoConstructors);
-                writeMemberList(typeDef, "classes instance", "inner-classes",
-                                out, blockContext, innerClasses,
-                                Collections.emptySet(), pseudoConstructors);
-                writeMemberList(typeDef, "fields instance", "fields", out,
-                                blockContext, instanceFields,
-                                Collections.emptySet(), pseudoConstructors);
-                writeMemberList(typeDef, "methods instance", "methods", out,
-                                blockContext, instanceMethods,
-                                Collections.emptySet(), pseudoConstructors);
-                writeMemberList(typeDef, "producers", "acquisition", out,
-                                blockContext, producers, Collections.emptySet(),
-                                pseudoConstructors);
-                writeMemberList(typeDef, "transformers", "transformation", out,
-                                blockContext, xforms, Collections.emptySet(),
-                                pseudoConstructors);
-                writeMemberList(typeDef, "consumers", "consumption", out,
-                                blockContext, consumers, Collections.emptySet(),
-                                pseudoConstructors);
-                out.printf("</table>\n");
-
-                slice.writeClassHierarchy(out, blockContext,
-                                          Collections.singleton(typeDef));
-
-                slice.writeAuthorSection(out, typeContext, blockContext,
-                                         typeDoc);
+                case ENUM_CONSTANT:
+                    constants.add((VariableElement) memb);
+                    break;
 
-                out.printf("</div>\n");
-                slice.writeUserSection(out, blockContext, "aftmatter",
-                                       "aftmatter", typeDef);
-
-                out.printf("</body>\n");
-                out.printf("</html>\n");
-            } catch (IOException ex) {
-                config.report(Kind.ERROR, typeDef, "output.class.failure.write",
-                              ex, typeFile);
-                return;
+                case FIELD:
+                    (memb.getModifiers().contains(Modifier.STATIC) ?
+                        memb.getModifiers().contains(Modifier.FINAL) ?
+                            constants : staticFields :
+                        instanceFields).add((VariableElement) memb);
+                    break;
+
+                case CONSTRUCTOR:
+                    constructors.add((ExecutableElement) memb);
+                    break;
+
+                case METHOD:
+                    (memb.getModifiers().contains(Modifier.STATIC) ?
+                        staticMethods : instanceMethods)
+                            .add((ExecutableElement) memb);
+                    break;
+
+                default:
+                    break;
+                }
             }
 
-            /* Iterate over non-class members. */
-            for (Element memb : typeDef.getEnclosedElements()) {
-                writeMemberDocumentation(leafName, typeFile, memb);
+            List<Element> producers = new ArrayList<>(config.producers
+                .getOrDefault(typeDef, Collections.emptySet()));
+            List<Element> consumers = new ArrayList<>(config.consumers
+                .getOrDefault(typeDef, Collections.emptySet()));
+            List<Element> xforms = new ArrayList<>(config.transformers
+                .getOrDefault(typeDef, Collections.emptySet()));
+
+            /* Include as constructors the methods that are tagged
+             * as constructors. TODO: Or maybe they should be listed
+             * twice...? */
+            final Collection<ExecutableElement> pseudoConstructors;
+            {
+                pseudoConstructors = config.pseudoConstructors
+                    .getOrDefault(typeDef, Collections.emptySet());
+                constructors.addAll(pseudoConstructors);
             }
+
+            instanceMethods.removeAll(pseudoConstructors);
+            staticMethods.removeAll(pseudoConstructors);
+            producers.removeAll(pseudoConstructors);
+            xforms.removeAll(pseudoConstructors);
+            producers.removeAll(instanceMethods);
+            producers.removeAll(staticFields);
+            consumers.removeAll(instanceMethods);
+            xforms.removeAll(instanceMethods);
+
+            out.print("<table class=\"javadoc-members\" summary=\"");
+            slice
+                .toHypertext(out::append, SourceContext.EMPTY,
+                             blockContext.inAttribute(), slice
+                                 .getTreeContent("class-members.table-summary"));
+            out.print("\">\n");
+            out.printf("<caption>%s</caption>\n", escaper
+                .escape(slice.getContent("class-members.caption")));
+            /* Columns are: modifiers and type variables; return
+             * type; name; parameters. */
+            writeMemberList(typeDef, "classes static", "static-classes",
+                            out, blockContext, staticClasses,
+                            EnumSet.of(Modifier.STATIC),
+                            pseudoConstructors);
+            writeMemberList(typeDef, "fields static final", "constants",
+                            out, blockContext, constants,
+                            EnumSet.of(Modifier.STATIC, Modifier.FINAL),
+                            pseudoConstructors);
+            writeMemberList(typeDef, "fields static", "static-fields", out,
+                            blockContext, staticFields,
+                            EnumSet.of(Modifier.STATIC),
+                            pseudoConstructors);
+            writeMemberList(typeDef, "methods static", "static-methods",
+                            out, blockContext, staticMethods,
+                            EnumSet.of(Modifier.STATIC),
+                            pseudoConstructors);
+            writeMemberList(typeDef, "constructors", "constructors", out,
+                            blockContext, constructors,
+                            Collections.emptySet(), pseudoConstructors);
+            writeMemberList(typeDef, "classes instance", "inner-classes",
+                            out, blockContext, innerClasses,
+                            Collections.emptySet(), pseudoConstructors);
+            writeMemberList(typeDef, "fields instance", "fields", out,
+                            blockContext, instanceFields,
+                            Collections.emptySet(), pseudoConstructors);
+            writeMemberList(typeDef, "methods instance", "methods", out,
+                            blockContext, instanceMethods,
+                            Collections.emptySet(), pseudoConstructors);
+            writeMemberList(typeDef, "producers", "acquisition", out,
+                            blockContext, producers, Collections.emptySet(),
+                            pseudoConstructors);
+            writeMemberList(typeDef, "transformers", "transformation", out,
+                            blockContext, xforms, Collections.emptySet(),
+                            pseudoConstructors);
+            writeMemberList(typeDef, "consumers", "consumption", out,
+                            blockContext, consumers, Collections.emptySet(),
+                            pseudoConstructors);
+            out.printf("</table>\n");
+
+            slice.writeClassHierarchy(out, blockContext,
+                                      Collections.singleton(typeDef));
+
+            slice.writeAuthorSection(out, typeContext, blockContext,
+                                     typeDoc);
+
+            out.printf("</div>\n");
+            slice.writeUserSection(out, blockContext, "aftmatter",
+                                   "aftmatter", typeDef);
+
+            out.printf("</body>\n");
+            out.printf("</html>\n");
+        } catch (IOException ex) {
+            config.report(Kind.ERROR, typeDef, "output.class.failure.write",
+                          ex, typeFile);
+            return;
+        }
+
+        /* Iterate over non-class members. */
+        for (Map.Entry<Element, Path> entry : memberFiles.entrySet())
+            writeMemberDocumentation(entry.getValue(), entry.getKey());
+    }
+
+    /**
+     * Get the pages documenting the members of a class, other than
+     * nested classes.
+     * 
+     * @param leafName the leaf name of the class's page, without
+     * suffixes
+     * 
+     * @param typeFile the class's page
+     * 
+     * @param typeDef the class
+     * 
+     * @return the page of each member that has one, in order of
+     * declaration
+     */
+    private Map<Element, Path> getMemberFiles(String leafName, Path typeFile,
+                                              TypeElement typeDef) {
+        Map<Element, Path> result = new LinkedHashMap<>();
+        for (Element memb : typeDef.getEnclosedElements()) {
+            Path membFile = getMemberFile(leafName, typeFile, memb);
+            if (membFile != null) result.put(memb, membFile);
         }
+        return result;
     }
 
-    private void writeMemberDocumentation(final String leafName,
-                                          final Path typeFile, Element memb) {
+    private Path getMemberFile(final String leafName, final Path typeFile,
+                               Element memb) {
         /* Skip over private and package-private members. */
         if (!memb.getModifiers().contains(Modifier.PUBLIC) &&
-            !memb.getModifiers().contains(Modifier.PROTECTED)) return;
-        if (config.excludedElements.contains(memb)) return;
+            !memb.getModifiers().contains(Modifier.PROTECTED)) return null;
+        if (config.excludedElements.contains(memb)) return null;
 
         /* Skip over non-class members. */
         final ExecutableElement execMemb;
-        @SuppressWarnings("unused")
-        final VariableElement varMemb;
         switch (memb.getKind()) {
         default:
-            return;
+            return null;
 
         case METHOD:
         case CONSTRUCTOR:
             execMemb = (ExecutableElement) memb;
-            varMemb = null;
             break;
 
         case FIELD:
         case ENUM_CONSTANT:
             execMemb = null;
-            varMemb = (VariableElement) memb;
             break;
         }
 
-        DocCommentTree membDoc = config.docTrees.getDocCommentTree(memb);
-
         /* Start building the leaf name. */
         final StringBuilder membLeafName = new StringBuilder(leafName);
 
@@ -525,9 +562,17 @@ public final class ClassGenerator {
         membLeafName.append(config.hypertextFileSuffix)
             .append(slice.spec.suffix);
 
+        return typeFile.getParent().resolve(membLeafName.toString());
+    }
+
+    private void writeMemberDocumentation(final Path membFile,
+                                          Element memb) {
+        final ExecutableElement execMemb =
+            memb instanceof ExecutableElement ? (ExecutableElement) memb :
+                null;
+        DocCommentTree membDoc = config.docTrees.getDocCommentTree(memb);
+
         final URI memberLoc = config.locateElement(memb);
-        final Path membFile =
-            typeFile.getParent().resolve(membLeafName.toString());
         final Escaper escaper = HypertextEscaper.forCData(slice.spec.charset);
         final Escaper attrEscaper =
             HypertextEscaper.forAttributes(slice.spec.charset);
@@ -999,10 +1044,13 @@ public final class ClassGenerator {
                 }
             }
 
+            /* Order overloads by signature, as the compiler's order of
+             * members depends on what it has been asked before. */
             Collections.sort(members,
-                             (a, b) -> String.CASE_INSENSITIVE_ORDER
-                                 .compare(a.getSimpleName().toString(),
-                                          b.getSimpleName().toString()));
+                             Comparator.comparing((Element e) -> e
+                                 .getSimpleName().toString(),
+                                                  String.CASE_INSENSITIVE_ORDER)
+                                 .thenComparing(Element::toString));
             out.printf("<tbody class=\"group %s\">\n", markupClasses);
             out.printf("<tr class=\"heading\">\n");
             out.printf("<th colspan=\"2\"><!-- empty --></th>\n");
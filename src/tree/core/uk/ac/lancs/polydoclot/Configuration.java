@@ -59,10 +59,12 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
@@ -79,10 +81,14 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.ResourceBundle;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -92,6 +98,7 @@ import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.ModuleElement;
 import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.QualifiedNameable;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.ArrayType;
@@ -109,11 +116,14 @@ import javax.tools.JavaFileObject;
 import jdk.javadoc.doclet.DocletEnvironment;
 import jdk.javadoc.doclet.Reporter;
 import uk.ac.lancs.polydoclot.imports.DocImport;
+import uk.ac.lancs.polydoclot.imports.ImportCache;
 import uk.ac.lancs.polydoclot.imports.DocMapping;
 import uk.ac.lancs.polydoclot.imports.DocMappingFactory;
 import uk.ac.lancs.polydoclot.imports.DocReference;
 import uk.ac.lancs.polydoclot.imports.MacroDocMapping;
 import uk.ac.lancs.polydoclot.imports.MacroDocMappingFactory;
+import uk.ac.lancs.polydoclot.imports.PackageIndex;
+import uk.ac.lancs.polydoclot.util.IfChangedOutputStream;
 import uk.ac.lancs.polydoclot.util.MacroFormatter;
 import uk.ac.lancs.polydoclot.util.Utils;
 
@@ -236,6 +246,13 @@ public final class Configuration {
      */
     public final Path outputDirectory;
 
+    /**
+     * The archive receiving generated content, or {@code null} if it is
+     * written to {@link #outputDirectory}, which otherwise only serves
+     * to resolve entry names
+     */
+    final ZipSink archive;
+
     /**
      * The output directory for offline content
      */
@@ -251,6 +268,18 @@ public final class Configuration {
      */
     public final String tidyProgram;
 
+    /**
+     * Whether HTML is to be tidied in-process, rather than by
+     * {@link #tidyProgram}
+     */
+    public final boolean tidyInternally;
+
+    /**
+     * The pool of HTMLTidy processes that pages are submitted to, or
+     * {@code null} if each page is to be tidied by its own process
+     */
+    final TidyPool tidyPool;
+
     /**
      * The suffix to use for internal links to HTML resources
      */
@@ -312,7 +341,8 @@ public final class Configuration {
     public final Collection<String> referencedAuthors;
 
     /**
-     * A mapping from package name to external installation
+     * A mapping from package name to external installation, excluding
+     * those held by the import index
      */
     public final Map<String, DocReference> imports;
 
@@ -321,6 +351,13 @@ public final class Configuration {
      */
     public final Map<String, DocReference> moduleImports;
 
+    /**
+     * A compact index from package name to external installation,
+     * consulted after {@link #imports}; or {@code null} if all
+     * imported packages are in {@link #imports}
+     */
+    private final PackageIndex packageIndex;
+
     /**
      * The sequence of slice specifications to be generated
      */
@@ -378,9 +415,65 @@ public final class Configuration {
     private boolean okay = false;
 
     /**
-     * Background jobs should be invoked on this executor.
+     * Background jobs should be invoked on this executor. It is
+     * bounded, and shared by all slices, so jobs must not wait for
+     * other jobs submitted to it. Submission blocks while too many
+     * jobs are pending.
+     */
+    final JobScheduler executor = new JobScheduler(JOB_THREADS,
+                                                   4 * JOB_THREADS);
+
+    private static final int JOB_THREADS =
+        Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Records the inputs of each page, so that unchanged pages are not
+     * generated again, or {@code null} if every page is to be
+     * generated
+     */
+    final PageManifest pageManifest;
+
+    /**
+     * Whether output files are left untouched if their content would
+     * not change
+     */
+    public final boolean writeIfChanged;
+
+    /**
+     * Whether gzip-compressed copies of pages, sitemaps and stylesheets
+     * are written alongside them
+     */
+    public final boolean gzipSiblings;
+
+    /**
+     * Records where the run spends its time, or {@code null} if not
+     * required
+     */
+    final RunReport runReport;
+
+    /**
+     * The one-based index of the shard of modules, packages and classes
+     * to be generated
+     */
+    public final int shardIndex;
+
+    /**
+     * The number of shards that modules, packages and classes are
+     * partitioned into, or 1 if they are all to be generated
+     */
+    public final int shardCount;
+
+    private final LongAdder writtenFiles = new LongAdder();
+
+    private final LongAdder unchangedFiles = new LongAdder();
+
+    private final Collection<Path> claimedCopies = new HashSet<>();
+
+    /**
+     * Serializes reports and diagnostics from tidying workers and
+     * background jobs
      */
-    public final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Object reportLock = new Object();
 
     /**
      * Get a localized diagnostic message with replaced arguments.
@@ -420,7 +513,10 @@ public final class Configuration {
      */
     public void report(Diagnostic.Kind kind, Element elem, String key,
                        Object... args) {
-        reporter.print(kind, elem, formatMessage(key, args));
+        String msg = formatMessage(key, args);
+        synchronized (reportLock) {
+            reporter.print(kind, elem, msg);
+        }
     }
 
     /**
@@ -437,7 +533,10 @@ public final class Configuration {
      */
     public void report(Diagnostic.Kind kind, DocTreePath path, String key,
                        Object... args) {
-        reporter.print(kind, path, formatMessage(key, args));
+        String msg = formatMessage(key, args);
+        synchronized (reportLock) {
+            reporter.print(kind, path, msg);
+        }
     }
 
     /**
@@ -451,7 +550,10 @@ public final class Configuration {
      * @param args arguments to replace constructs in the patten
      */
     public void report(Diagnostic.Kind kind, String key, Object... args) {
-        reporter.print(kind, formatMessage(key, args));
+        String msg = formatMessage(key, args);
+        synchronized (reportLock) {
+            reporter.print(kind, msg);
+        }
     }
 
     /**
@@ -463,7 +565,64 @@ public final class Configuration {
      * @param args arguments to replace constructs in the patten
      */
     public void diagnostic(String key, Object... args) {
-        System.err.println(formatMessage(key, args));
+        String msg = formatMessage(key, args);
+        synchronized (reportLock) {
+            System.err.println(msg);
+        }
+    }
+
+    /**
+     * Report the outcome of tidying a page, interpreting the status as
+     * HTMLTidy's exit code.
+     * 
+     * @param rc the exit status
+     * 
+     * @param tidyLog the file containing diagnostics, or {@code null}
+     * if not recorded
+     */
+    public void reportTidyStatus(int rc, Path tidyLog) {
+        switch (rc) {
+        case 0:
+            break;
+
+        case 1:
+            if (tidyLog != null)
+                report(Kind.WARNING, "tidy.warning.see", tidyLog);
+            else
+                report(Kind.WARNING, "tidy.warning");
+            break;
+
+        default:
+            if (tidyLog != null)
+                report(Kind.ERROR, "tidy.failure.see", tidyLog);
+            else
+                report(Kind.ERROR, "tidy.failure");
+            break;
+        }
+    }
+
+    /**
+     * Wait for all pages submitted for tidying to be written. This has
+     * no effect if pages are not tidied in batches.
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitTidying() throws InterruptedException {
+        if (tidyPool != null) tidyPool.finish();
+    }
+
+    /**
+     * Claim responsibility for copying files to a destination. Only the
+     * first claim for a given destination succeeds, so that slices
+     * sharing a directory don't copy the same files again.
+     * 
+     * @param dest the destination
+     * 
+     * @return {@code true} if the caller should perform the copy;
+     * {@code false} if it has already been claimed
+     */
+    public boolean claimCopy(Path dest) {
+        return claimedCopies.add(dest);
     }
 
     /**
@@ -539,18 +698,58 @@ public final class Configuration {
      * @param rawImports imported Javadoc installations to link to for
      * external program elements
      * 
+     * @param importTimeout the timeout in milliseconds for connecting
+     * to and reading from each imported installation; or 0 for no
+     * timeout
+     * 
+     * @param importCache a persistent cache of imported installations'
+     * meta-data; or {@code null} if not to be used
+     * 
+     * @param importIndex a file holding a compact index of imported
+     * packages, to be reused if built from the same imports, and
+     * rebuilt otherwise; or {@code null} to keep imported packages in a
+     * map
+     * 
      * @param rawGroupTitles command-line supplied package/module
      * groups, indexed by arbitrary but distinct keys; empty to use
      * group specifications embedded in overview source
      * 
      * @param outputDirectory the output directory for all files
      * 
+     * @param archive the archive to write files into instead, with
+     * names relative to {@code outputDirectory}; or {@code null} if
+     * files are to be written directly
+     * 
      * @param diagnosticsDirectory the output directory for diagnostics,
      * or {@code null} if not required
      * 
      * @param tidyProgram the path to the HTMLTidy program, or
      * {@code null} if not to be used
      * 
+     * @param tidyInternally {@code true} if HTML is to be tidied
+     * in-process instead of by the HTMLTidy program
+     * 
+     * @param tidyWorkers the number of long-lived HTMLTidy processes to
+     * tidy pages in batches; or 0 to run a process per page
+     * 
+     * @param incremental {@code true} if pages whose inputs are
+     * unchanged since the previous run are not to be generated again
+     * 
+     * @param writeIfChanged {@code true} if output files whose content
+     * would not change are to be left untouched
+     * 
+     * @param gzipSiblings {@code true} if gzip-compressed copies of
+     * pages, sitemaps and stylesheets are to be written alongside them
+     * 
+     * @param runReport a record of where the run spends its time; or
+     * {@code null} if not required
+     * 
+     * @param shardIndex the one-based index of the shard of modules,
+     * packages and classes to generate
+     * 
+     * @param shardCount the number of shards to partition modules,
+     * packages and classes into; or 1 to generate them all
+     * 
      * @param hypertextLinkSuffix the suffix to use on HTML files; empty
      * to encourage content negotiation
      * 
@@ -569,10 +768,18 @@ public final class Configuration {
                          ResourceBundle messageBundle, String rawTitle,
                          String rawShortTitle, String overviewFile,
                          List<? extends DocImport> rawImports,
+                         int importTimeout, ImportCache importCache,
+                         Path importIndex,
                          Map<? extends Object, ? extends String> rawGroupTitles,
-                         Path outputDirectory, Path offlineDirectory,
+                         Path outputDirectory, ZipSink archive,
+                         Path offlineDirectory,
                          Path diagnosticsDirectory, String hypertextLinkSuffix,
-                         String tidyProgram, Path styleSource, URI style,
+                         String tidyProgram, boolean tidyInternally,
+                         int tidyWorkers, boolean incremental,
+                         boolean writeIfChanged, boolean gzipSiblings,
+                         RunReport runReport, int shardIndex,
+                         int shardCount,
+                         Path styleSource, URI style,
                          Map<? extends Path, ? extends String> dirToJar,
                          Map<? extends String, ? extends String> jarToVersion,
                          List<? extends SliceSpecification> sliceSpecs,
@@ -603,10 +810,20 @@ public final class Configuration {
         this.messageBundle = messageBundle;
 
         this.outputDirectory = outputDirectory;
+        this.archive = archive;
         this.offlineDirectory = offlineDirectory;
         this.diagnosticsDirectory = diagnosticsDirectory;
         this.hypertextLinkSuffix = hypertextLinkSuffix;
         this.tidyProgram = tidyProgram;
+        this.tidyInternally = tidyInternally;
+        this.writeIfChanged = writeIfChanged;
+        this.gzipSiblings = gzipSiblings;
+        this.runReport = runReport;
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        this.tidyPool = tidyProgram != null && !tidyInternally &&
+            tidyWorkers > 0 ? new TidyPool(this, tidyProgram, tidyWorkers) :
+                null;
         this.styleSource = styleSource;
         this.style = style;
         this.listUndocumented = listUndocumented;
@@ -735,6 +952,30 @@ public final class Configuration {
             }
         }
 
+        /* Load the page hashes of the previous run, if only changed
+         * pages are to be generated. */
+        {
+            PageManifest manifest = null;
+            if (incremental && this.outputDirectory != null) {
+                List<Object> settings = new ArrayList<>();
+                settings.add(rawTitle);
+                settings.add(rawShortTitle);
+                settings.add(rawGroupTitles);
+                for (DocImport imp : rawImports)
+                    settings.add(imp.location);
+                settings.add(shardIndex + "/" + shardCount);
+                try {
+                    manifest = new PageManifest(this, settings);
+                } catch (IOException ex) {
+                    report(Diagnostic.Kind.WARNING,
+                           "output.manifest.failure.read", ex.getMessage(),
+                           this.outputDirectory
+                               .resolve(PageManifest.MANIFEST_NAME));
+                }
+            }
+            this.pageManifest = manifest;
+        }
+
         /* List all slices to be produced. */
         {
             int langWidth = 0, charsetWidth = 0, suffixWidth = 5;
@@ -1557,13 +1798,58 @@ public final class Configuration {
             this.imports = Collections.unmodifiableMap(imports);
             Map<String, DocReference> moduleImports = new HashMap<>();
             this.moduleImports = Collections.unmodifiableMap(moduleImports);
-            for (DocImport imp : rawImports) {
+
+            /* Reuse a compact index of the imports if one was built
+             * from the same imports. Otherwise, fetch their
+             * meta-data, and build one if requested. */
+            PackageIndex index = null;
+            if (importIndex != null) {
                 try {
-                    imp.install(imports, moduleImports, mappingFactory);
+                    index = PackageIndex.open(importIndex, rawImports,
+                                              mappingFactory);
                 } catch (IOException ex) {
-                    report(Diagnostic.Kind.ERROR, "import.failure.read",
-                           ex.getMessage(), imp.location);
-                    return;
+                    report(Diagnostic.Kind.WARNING, "import.index.failure",
+                           ex.getMessage(), importIndex);
+                }
+            }
+            List<DocImport.Listing> listings = index != null ?
+                Collections.emptyList() :
+                loadImports(rawImports, mappingFactory, importTimeout,
+                            importCache);
+            if (listings != null && index == null && importIndex != null) {
+                try {
+                    PackageIndex.write(importIndex, rawImports, listings);
+                    index = PackageIndex.open(importIndex, rawImports,
+                                              mappingFactory);
+                } catch (IOException ex) {
+                    report(Diagnostic.Kind.WARNING, "import.index.failure",
+                           ex.getMessage(), importIndex);
+                }
+            }
+            this.packageIndex = index;
+            if (listings == null) return;
+            if (importCache != null)
+                diagnostic("import.cache.stats",
+                           importCache.getDownloadCount(),
+                           importCache.getRevalidationCount(),
+                           importCache.getFallbackCount());
+            if (index != null) {
+                /* Only modules and our own packages are kept in
+                 * maps. */
+                long start = System.nanoTime();
+                index.installModules(moduleImports);
+                if (runReport != null)
+                    runReport.phase("import.install", importIndex.toString(),
+                                    start);
+                diagnostic("import.index.stats", index.size(), importIndex);
+            } else {
+                for (int i = 0; i < listings.size(); i++) {
+                    long start = System.nanoTime();
+                    listings.get(i).install(imports, moduleImports);
+                    if (runReport != null)
+                        runReport.phase("import.install",
+                                        rawImports.get(i).location.toString(),
+                                        start);
                 }
             }
 
@@ -1647,17 +1933,30 @@ public final class Configuration {
             gatherSupertypes(distances, distance, impl);
     }
 
+    private final Map<TypeElement, List<TypeElement>> inheritanceOrders =
+        new ConcurrentHashMap<>();
+
+    private final Map<ExecutableElement, List<ExecutableElement>> overriddenMethods =
+        new ConcurrentHashMap<>();
+
     /**
      * Get all supertypes of a type in a preferred order of inheritance.
      * More specific types appear earlier in the result. Types closer to
-     * the original appear earlier.
+     * the original appear earlier. The order is computed once per type,
+     * and shared by subsequent calls.
      * 
      * @param start the starting type, which is not included in the
      * result
      * 
-     * @return all supertypes of the starting type, in inheritance order
+     * @return an immutable list of all supertypes of the starting type,
+     * in inheritance order
      */
     public List<TypeElement> getInheritanceOrder(TypeElement start) {
+        return inheritanceOrders
+            .computeIfAbsent(start, this::computeInheritanceOrder);
+    }
+
+    private List<TypeElement> computeInheritanceOrder(TypeElement start) {
         /* Gather all supertypses together, remembering how near each is
          * to the start. */
         Map<TypeElement, Integer> distances = new HashMap<>();
@@ -1672,7 +1971,43 @@ public final class Configuration {
             if (types.isSubtype(b.asType(), a.asType())) return +1;
             return distances.get(a) - distances.get(b);
         });
-        return result;
+        return List.copyOf(result);
+    }
+
+    /**
+     * Get the methods that a method overrides, in the inheritance order
+     * of its enclosing type. The result is computed once per method,
+     * and shared by subsequent calls.
+     * 
+     * @param meth the overriding method
+     * 
+     * @return an immutable list of the methods overridden by the
+     * method, in order of the supertypes declaring them
+     * 
+     * @see #getInheritanceOrder(TypeElement)
+     * 
+     * @see Elements#overrides(ExecutableElement, ExecutableElement,
+     * TypeElement)
+     */
+    public List<ExecutableElement>
+        getOverriddenMethods(ExecutableElement meth) {
+        return overriddenMethods
+            .computeIfAbsent(meth, this::computeOverriddenMethods);
+    }
+
+    private List<ExecutableElement>
+        computeOverriddenMethods(ExecutableElement meth) {
+        if (meth.getModifiers().contains(Modifier.STATIC)) return List.of();
+        TypeElement type = (TypeElement) meth.getEnclosingElement();
+        List<ExecutableElement> result = new ArrayList<>();
+        for (TypeElement cand : getInheritanceOrder(type)) {
+            for (ExecutableElement candMeth : ElementFilter
+                .methodsIn(cand.getEnclosedElements())) {
+                if (elements.overrides(meth, candMeth, type))
+                    result.add(candMeth);
+            }
+        }
+        return List.copyOf(result);
     }
 
     /**
@@ -1948,7 +2283,7 @@ public final class Configuration {
 
         default:
             /* Pick one arbitrarily, after warning the user. */
-            report(Kind.WARNING, orig, "link.ambiguity.package",
+            reportResolution(orig, "link.ambiguity.package",
                    packageClassText, pkgs.stream().map(elements::getModuleOf)
                        .collect(Collectors.toList()));
             // Fall through.
@@ -1972,7 +2307,7 @@ public final class Configuration {
 
         default:
             /* Pick one arbitrarily, after warning the user. */
-            report(Kind.WARNING, orig, "link.ambiguity.class", packageClassText,
+            reportResolution(orig, "link.ambiguity.class", packageClassText,
                    types.stream().map(elements::getModuleOf)
                        .collect(Collectors.toList()));
             // Fall through.
@@ -1999,15 +2334,7 @@ public final class Configuration {
             suffix = packageClassText.substring(firstDot);
         }
 
-        for (ImportTree imp : docTrees.getPath(topLevelClass)
-            .getCompilationUnit().getImports()) {
-            /* Static imports are not for classes (right?), so we skip
-             * them. */
-            if (imp.isStatic()) continue;
-
-            /* Get the imported name. */
-            String text = imp.getQualifiedIdentifier().toString();
-
+        for (String text : getImports(topLevelClass)) {
             final String candName;
             if (text.endsWith(".*")) {
                 /* The import is for a whole package. Handle it by
@@ -2047,6 +2374,69 @@ public final class Configuration {
         return null;
     }
 
+    private final Map<CompilationUnitTree, List<String>> importScopes =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Get the names imported by the compilation unit of an element.
+     * Each compilation unit's imports are gathered once.
+     * 
+     * @param elem the top-level class or package whose compilation
+     * unit is to be consulted
+     * 
+     * @return the names of imported types and packages, in order of
+     * declaration, with packages imported on demand ending in
+     * <samp>.*</samp>
+     */
+    private List<String> getImports(Element elem) {
+        TreePath path = docTrees.getPath(elem);
+        if (path == null) return Collections.emptyList();
+        return importScopes.computeIfAbsent(path.getCompilationUnit(),
+                                            Configuration::gatherImports);
+    }
+
+    private static List<String> gatherImports(CompilationUnitTree unit) {
+        List<String> result = new ArrayList<>();
+        for (ImportTree imp : unit.getImports()) {
+            /* Static imports are not for classes (right?), so we skip
+             * them. */
+            if (imp.isStatic()) continue;
+            result.add(imp.getQualifiedIdentifier().toString());
+        }
+        return List.copyOf(result);
+    }
+
+    private final Map<TypeElement, Map<String, List<Element>>> memberIndexes =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Get the members declared by a type with a given name. Each type's
+     * members are indexed once.
+     * 
+     * @param type the type whose members are sought
+     * 
+     * @param name the simple name of the members, or the type's simple
+     * name to include its constructors
+     * 
+     * @return the matching members, in order of declaration
+     */
+    private List<Element> getMembersNamed(TypeElement type, String name) {
+        return memberIndexes.computeIfAbsent(type, Configuration::indexMembers)
+            .getOrDefault(name, Collections.emptyList());
+    }
+
+    private static Map<String, List<Element>> indexMembers(TypeElement type) {
+        String typeName = type.getSimpleName().toString();
+        Map<String, List<Element>> result = new HashMap<>();
+        for (Element member : type.getEnclosedElements()) {
+            /* Constructors are referenced by their type's name. */
+            String name = member.getKind() == ElementKind.CONSTRUCTOR ?
+                typeName : member.getSimpleName().toString();
+            result.computeIfAbsent(name, k -> new ArrayList<>()).add(member);
+        }
+        return result;
+    }
+
     private boolean isSuitableContext(Element ctxt) {
         switch (ctxt.getKind()) {
         case CLASS:
@@ -2285,7 +2675,49 @@ public final class Configuration {
     }
 
     /**
-     * Resolve an element signature in a context.
+     * Holds resolved signatures by the class, package or module in
+     * whose scope they were resolved, then by the signature text
+     */
+    private final Map<Element, Map<String, Optional<Element>>> resolutions =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Holds resolved signatures referenced outside any class, package
+     * or module, by the signature text
+     */
+    private final Map<String, Optional<Element>> unscopedResolutions =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Records whether resolving a signature on the current thread has
+     * issued a warning about the referring element, so that the result
+     * is not cached, and other referrers get the warning too
+     */
+    private final ThreadLocal<Boolean> resolutionWarned =
+        ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Records whether warnings from resolving signatures on the current
+     * thread are to be suppressed
+     */
+    private final ThreadLocal<Boolean> resolutionQuiet =
+        ThreadLocal.withInitial(() -> false);
+
+    private final LongAdder resolutionHits = new LongAdder();
+
+    private final LongAdder resolutionMisses = new LongAdder();
+
+    private void reportResolution(Element referrer, String key,
+                                  Object... args) {
+        resolutionWarned.set(true);
+        if (!resolutionQuiet.get()) report(Kind.WARNING, referrer, key, args);
+    }
+
+    /**
+     * Resolve an element signature in a context. Resolution depends
+     * only on the nearest class, package or module enclosing the
+     * context, so results are cached by that scope and the signature
+     * text.
      * 
      * @param ctxt the context in which to resolve the reference
      * 
@@ -2298,6 +2730,49 @@ public final class Configuration {
      * or method/constructor, respectively
      */
     public Element resolveSignature(Element ctxt, String sigText) {
+        Element scope = ctxt;
+        while (scope != null && !isSuitableContext(scope))
+            scope = scope.getEnclosingElement();
+        Map<String, Optional<Element>> cache = scope == null ?
+            unscopedResolutions :
+            resolutions.computeIfAbsent(scope, k -> new ConcurrentHashMap<>());
+
+        Optional<Element> cached = cache.get(sigText);
+        if (cached != null) {
+            resolutionHits.increment();
+            return cached.orElse(null);
+        }
+        resolutionMisses.increment();
+
+        resolutionWarned.set(false);
+        Element result = computeResolution(ctxt, sigText);
+        if (!resolutionWarned.get())
+            cache.put(sigText, Optional.ofNullable(result));
+        return result;
+    }
+
+    /**
+     * Resolve an element signature in a context, without reporting
+     * problems. The result of a resolution that encounters problems is
+     * not cached, so they are still reported when the signature is
+     * resolved by {@link #resolveSignature(Element, String)}.
+     * 
+     * @param ctxt the context in which to resolve the reference
+     * 
+     * @param sigText the text to be resolved
+     * 
+     * @return the referenced element; or {@code null} if not found
+     */
+    public Element resolveSignatureQuietly(Element ctxt, String sigText) {
+        resolutionQuiet.set(true);
+        try {
+            return resolveSignature(ctxt, sigText);
+        } finally {
+            resolutionQuiet.set(false);
+        }
+    }
+
+    private Element computeResolution(Element ctxt, String sigText) {
         /* Parse the signature into its components. */
         Signature sig = new Signature(sigText);
 
@@ -2315,8 +2790,8 @@ public final class Configuration {
         /* A member is specified, so the found element must be a
          * class. */
         if (!(mpcs.get(0) instanceof TypeElement)) {
-            report(Kind.WARNING, ctxt, "link.member-of-non-class", mpcs.get(0),
-                   sig.member);
+            reportResolution(ctxt, "link.member-of-non-class", mpcs.get(0),
+                             sig.member);
             return null;
         }
 
@@ -2331,10 +2806,15 @@ public final class Configuration {
             for (TypeElement mpc : searchPath) {
                 assert mpc != null;
                 assert mpc instanceof TypeElement;
-                for (VariableElement field : ElementFilter
-                    .fieldsIn(mpc.getEnclosedElements())) {
-                    if (field.getSimpleName().contentEquals(sig.member))
+                for (Element field : getMembersNamed(mpc, sig.member)) {
+                    switch (field.getKind()) {
+                    case ENUM_CONSTANT:
+                    case FIELD:
                         return field;
+
+                    default:
+                        continue;
+                    }
                 }
                 if (sig.packageClass != null) break;
             }
@@ -2350,10 +2830,12 @@ public final class Configuration {
              * array dimensions. */
             TypeMirror baseType = resolveType(ctxt, p.type);
             if (baseType == null) {
+                resolutionWarned.set(true);
                 /* TODO: Get a localized error message. */
-                System.err.printf("Failed to resolve %s [%d]%s in %s%n", p.type,
-                                  p.dims - (p.varargs ? 1 : 0),
-                                  p.varargs ? "..." : "", sigText);
+                if (!resolutionQuiet.get())
+                    System.err.printf("Failed to resolve %s [%d]%s in %s%n",
+                                      p.type, p.dims - (p.varargs ? 1 : 0),
+                                      p.varargs ? "..." : "", sigText);
             }
             for (int i = 0; i < p.dims; i++)
                 baseType = types.getArrayType(baseType);
@@ -2367,23 +2849,12 @@ public final class Configuration {
         for (TypeElement mpc : searchPath) {
             assert mpc != null;
             assert mpc instanceof TypeElement;
-            /* We could be matching a constructor if this type's name
-             * matches the sought member, and it has a parameter
-             * list. */
-            final boolean containerMemberMatch = sig.args != null &&
-                sig.member.equals(mpc.getSimpleName().toString());
-
             /* See if we can identify a member in each of the listed
-             * types. */
-            next_cand: for (Element member : mpc.getEnclosedElements()) {
-                /* The member name must match, or the member is a
-                 * constructor and the type's name is the member we're
-                 * looking for. */
-                if (!member.getSimpleName().toString().equals(sig.member) &&
-                    (!containerMemberMatch ||
-                        member.getKind() != ElementKind.CONSTRUCTOR))
-                    continue;
-
+             * types. The member name must match, or the member is a
+             * constructor and the type's name is the member we're
+             * looking for. */
+            next_cand: for (Element member : getMembersNamed(mpc,
+                                                             sig.member)) {
                 /* Other aspects must match depending on the member
                  * kind. */
                 switch (member.getKind()) {
@@ -2437,16 +2908,83 @@ public final class Configuration {
      */
     public URI getAuthorAssumedLocation(Element elem) {
         if (elem == null) return locateOverview();
-        Properties params = new Properties();
+        Map<String, String> params = new HashMap<>();
         setElementProperties(params, elem);
-        return URI.create(assumedLocationFormatter.format(params));
+        return URI.create(assumedLocationFormatter.format(params::get));
     }
 
+    /**
+     * Caches the results of {@link #locateElement(Element)}, with
+     * {@link Optional#empty()} recording unknown elements
+     */
+    private final Map<Element, Optional<URI>> elementLocations =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Fetch the meta-data of imported installations concurrently.
+     * 
+     * @param rawImports the imports
+     * 
+     * @param mappingFactory a way to map program elements into URIs
+     * 
+     * @param importTimeout the timeout in milliseconds for accessing
+     * each installation; or 0 for no timeout
+     * 
+     * @param importCache a persistent cache of meta-data; or
+     * {@code null} if not to be used
+     * 
+     * @return the listings of the imports in the order specified; or
+     * {@code null} if an import failed, and an error has been reported
+     */
+    private List<DocImport.Listing>
+        loadImports(List<? extends DocImport> rawImports,
+                    DocMappingFactory mappingFactory, int importTimeout,
+                    ImportCache importCache) {
+        /* Fetch all imports' meta-data concurrently, but keep them in
+         * the order specified, so later imports override earlier ones
+         * as if done sequentially. */
+        List<CompletableFuture<DocImport.Listing>> futures =
+            new ArrayList<>(rawImports.size());
+        for (DocImport imp : rawImports)
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    return imp.load(mappingFactory, importTimeout,
+                                    importCache);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                } finally {
+                    if (runReport != null)
+                        runReport.phase("import.load",
+                                        imp.location.toString(), start);
+                }
+            }, executor));
+        List<DocImport.Listing> listings = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                listings.add(futures.get(i).join());
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof UncheckedIOException)
+                    cause = cause.getCause();
+                report(Diagnostic.Kind.ERROR, "import.failure.read",
+                       cause.getMessage(), rawImports.get(i).location);
+                return null;
+            }
+        }
+        return listings;
+    }
+
+    private final LongAdder elementLocationHits = new LongAdder();
+
+    private final LongAdder elementLocationMisses = new LongAdder();
+
     /**
      * Locate the documentation for a given element. The element's
      * package is looked up in our set of known packages to obtain a
      * document mapping. The element is then passed to this mapping to
-     * yield the result.
+     * yield the result. Results are cached, as they do not depend on
+     * the slice.
      * 
      * @param elem the sought element
      * 
@@ -2455,14 +2993,24 @@ public final class Configuration {
      */
     public URI locateElement(Element elem) {
         if (elem == null) throw new NullPointerException();
+        Optional<URI> cached = elementLocations.get(elem);
+        if (cached != null) {
+            elementLocationHits.increment();
+            return cached.orElse(null);
+        }
+        elementLocationMisses.increment();
+        URI result = locateElementUncached(elem);
+        elementLocations.putIfAbsent(elem, Optional.ofNullable(result));
+        return result;
+    }
+
+    private URI locateElementUncached(Element elem) {
         switch (elem.getKind()) {
         case MODULE:
             ModuleElement mod = (ModuleElement) elem;
             String modName = mod.getQualifiedName().toString();
             DocReference modRef = moduleImports.get(modName);
             if (modRef == null) return null;
-            Properties props = new Properties();
-            setElementProperties(props, mod);
             return modRef.mapping.locate(mod);
 
         default:
@@ -2470,11 +3018,208 @@ public final class Configuration {
             if (pkg == null) return null;
             String pkgName = pkg.getQualifiedName().toString();
             DocReference ref = imports.get(pkgName);
+            if (ref == null && packageIndex != null)
+                ref = packageIndex.get(pkgName);
             if (ref == null) return null;
             return ref.mapping.locate(elem);
         }
     }
 
+    /**
+     * Determine whether an element's page belongs to the shard being
+     * generated. Modules and packages are partitioned by their names,
+     * and classes by the names of their outermost classes, so nested
+     * classes are generated with their enclosing classes. The
+     * partition depends only on the names and the number of shards, so
+     * separate runs over the same sources agree on it.
+     * 
+     * @param elem the module, package or class
+     * 
+     * @return {@code true} if the element's page is to be generated
+     */
+    public boolean isInShard(Element elem) {
+        if (shardCount <= 1) return true;
+        while (elem.getKind().isClass() || elem.getKind().isInterface()) {
+            Element encl = elem.getEnclosingElement();
+            if (!(encl instanceof TypeElement)) break;
+            elem = encl;
+        }
+        String name = elem instanceof QualifiedNameable ?
+            ((QualifiedNameable) elem).getQualifiedName().toString() :
+            elem.toString();
+        return Math.floorMod(name.hashCode(), shardCount) == shardIndex - 1;
+    }
+
+    /**
+     * Open an output file for writing. If output is to an archive, the
+     * content is added as an entry when the stream is closed. Otherwise,
+     * if only changed files are to be written, the content is buffered,
+     * and the file is only replaced on closing if its content differs.
+     * 
+     * @param file the file to write
+     * 
+     * @return a stream writing to the file
+     * 
+     * @throws IOException if the file could not be opened
+     */
+    public OutputStream openOutputFile(Path file) throws IOException {
+        final OutputStream out;
+        if (archive != null)
+            out = archive.open(entryName(file));
+        else if (!writeIfChanged)
+            out = Files.newOutputStream(file);
+        else
+            out = new IfChangedOutputStream(file, written -> {
+                if (written)
+                    writtenFiles.increment();
+                else
+                    unchangedFiles.increment();
+            });
+        return runReport == null ? out : runReport.meter(file, out);
+    }
+
+    /**
+     * Open a file to be served to clients for writing. If requested, a
+     * gzip-compressed copy is written alongside it, with
+     * <samp>{@value MetadataGenerator#GZIP_SUFFIX}</samp> appended to
+     * its name, as the content is written.
+     * 
+     * @param file the file to write
+     * 
+     * @return a stream writing to the file and its compressed copy
+     * 
+     * @throws IOException if either file could not be opened
+     */
+    public OutputStream openServedFile(Path file) throws IOException {
+        OutputStream out = openOutputFile(file);
+        if (!gzipSiblings) return out;
+        Path sibling = file.resolveSibling(file.getFileName()
+            + MetadataGenerator.GZIP_SUFFIX);
+        try {
+            return Utils.tee(out,
+                             new GZIPOutputStream(openOutputFile(sibling),
+                                                  8192));
+        } catch (IOException | RuntimeException ex) {
+            out.close();
+            throw ex;
+        }
+    }
+
+    private String entryName(Path file) {
+        return outputDirectory.relativize(file).toString()
+            .replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Determine whether an output file exists, either from this run or
+     * an earlier one.
+     * 
+     * @param file the output file
+     * 
+     * @return {@code true} if the file exists
+     */
+    boolean outputFileExists(Path file) {
+        if (archive != null) return archive.exists(entryName(file));
+        return Files.exists(file);
+    }
+
+    /**
+     * Read an existing output file.
+     * 
+     * @param file the output file
+     * 
+     * @return the file's content
+     * 
+     * @throws NoSuchFileException if the file does not exist
+     * 
+     * @throws IOException if the file could not be read
+     */
+    InputStream openExistingOutputFile(Path file) throws IOException {
+        if (archive != null) return archive.openExisting(entryName(file));
+        return Files.newInputStream(file);
+    }
+
+    /**
+     * Remove an output file left by an earlier run. If output is to an
+     * archive, the file is simply not retained from the existing one.
+     * 
+     * @param file the output file
+     * 
+     * @throws IOException if the file could not be removed
+     */
+    void discardOutputFile(Path file) throws IOException {
+        if (archive != null)
+            archive.discard(entryName(file));
+        else
+            Files.deleteIfExists(file);
+    }
+
+    /**
+     * Report how many output files were left unchanged, if only changed
+     * files are written.
+     */
+    public void reportOutputStatistics() {
+        if (!writeIfChanged) return;
+        diagnostic("output.files.stats", writtenFiles.sum(),
+                   unchangedFiles.sum());
+    }
+
+    /**
+     * Record the completion of a phase of the run, if a run report is
+     * required.
+     * 
+     * @param name the name of the phase
+     * 
+     * @param subject what the phase applies to, such as a slice suffix;
+     * or {@code null} if the phase applies to the whole run
+     * 
+     * @param start the time the phase started, as returned by
+     * {@link System#nanoTime()}
+     */
+    public void phase(String name, String subject, long start) {
+        if (runReport != null) runReport.phase(name, subject, start);
+    }
+
+    /**
+     * Write the run report, if requested, with the configuration's
+     * counters.
+     */
+    public void writeRunReport() {
+        if (runReport == null) return;
+        runReport.count("pages", runReport.getPageCount());
+        if (pageManifest != null)
+            runReport.count("pages.unchanged", pageManifest.getSkippedCount());
+        runReport.count("files", runReport.getFileCount());
+        if (writeIfChanged)
+            runReport.count("files.unchanged", unchangedFiles.sum());
+        runReport.count("bytes", runReport.getByteCount());
+        runReport.count("links.resolved", elementLocationHits.sum()
+            + elementLocationMisses.sum());
+        runReport.count("links.computed", elementLocationMisses.sum());
+        runReport.count("signatures.resolved",
+                        resolutionHits.sum() + resolutionMisses.sum());
+        runReport.count("signatures.computed", resolutionMisses.sum());
+        runReport.count("content.unflattened",
+                        unflattenedHits.sum() + unflattenedMisses.sum());
+        try {
+            runReport.write(outputDirectory);
+        } catch (IOException ex) {
+            report(Diagnostic.Kind.ERROR, "report.failure.write",
+                   ex.getMessage(), runReport.getFile());
+        }
+    }
+
+    /**
+     * Report how effective the element-location and unflattened-content
+     * caches have been.
+     */
+    public void reportCacheStatistics() {
+        diagnostic("locate.stats", elementLocationHits.sum(),
+                   elementLocationMisses.sum());
+        diagnostic("unflatten.stats", unflattenedHits.sum(),
+                   unflattenedMisses.sum());
+    }
+
     /**
      * Get the internal URI of the overview page.
      * 
@@ -2566,14 +3311,16 @@ public final class Configuration {
      * 
      * </dl>
      * 
-     * @param props the properties to be modified
+     * @param props the map of properties to be modified
      * 
      * @param elem the element to be identified
      * 
      * @throws IllegalArgumentException if the element is not a class,
      * package, method or field
      */
-    public void setElementProperties(Properties props, Element elem) {
+    public void
+        setElementProperties(Map<? super String, ? super String> props,
+                             Element elem) {
         /* Extract parameter types. */
         switch (elem.getKind()) {
         case CONSTRUCTOR:
@@ -2597,19 +3344,17 @@ public final class Configuration {
                 Element varTypeElement = types.asElement(varType);
                 varType = types.erasure(varType);
 
-                props.setProperty("PARAMETER." + pos,
-                                  DocUtils.getLongName(varType));
-                props
-                    .setProperty("PARAMETER." + pos + ".SHORT",
-                                 varTypeElement == null ?
-                                     DocUtils.getLongName(varType) :
-                                     varTypeElement.getSimpleName().toString());
-                if (dims > 0) props.setProperty("PARAMETER." + pos + ".DIMS",
-                                                Integer.toString(dims));
+                props.put("PARAMETER." + pos, DocUtils.getLongName(varType));
+                props.put("PARAMETER." + pos + ".SHORT",
+                          varTypeElement == null ?
+                              DocUtils.getLongName(varType) :
+                              varTypeElement.getSimpleName().toString());
+                if (dims > 0) props.put("PARAMETER." + pos + ".DIMS",
+                                        Integer.toString(dims));
 
                 if (pos == vararg)
-                    props.setProperty("PARAMETER." + pos + ".VARARG",
-                                      Integer.toString(dims - 1));
+                    props.put("PARAMETER." + pos + ".VARARG",
+                              Integer.toString(dims - 1));
             }
             break;
 
@@ -2619,24 +3364,24 @@ public final class Configuration {
 
         /* Identify static members. */
         if (elem.getModifiers().contains(Modifier.STATIC))
-            props.setProperty("STATIC", elem.getSimpleName().toString());
+            props.put("STATIC", elem.getSimpleName().toString());
 
         /* Record details of the member, if specified. */
         switch (elem.getKind()) {
         case CONSTRUCTOR: {
             String className =
                 elem.getEnclosingElement().getSimpleName().toString();
-            props.setProperty("CONSTR", className);
-            props.setProperty("EXEC", className);
-            props.setProperty("MEMBER", className);
+            props.put("CONSTR", className);
+            props.put("EXEC", className);
+            props.put("MEMBER", className);
         }
             break;
 
         case METHOD: {
             String methodName = elem.getSimpleName().toString();
-            props.setProperty("METHOD", methodName);
-            props.setProperty("EXEC", methodName);
-            props.setProperty("MEMBER", methodName);
+            props.put("METHOD", methodName);
+            props.put("EXEC", methodName);
+            props.put("MEMBER", methodName);
         }
             break;
 
@@ -2645,9 +3390,9 @@ public final class Configuration {
             String fieldName = elem.getSimpleName().toString();
             if (elem.getModifiers()
                 .containsAll(EnumSet.of(Modifier.FINAL, Modifier.STATIC)))
-                props.setProperty("CONSTANT", fieldName);
-            props.setProperty("FIELD", fieldName);
-            props.setProperty("MEMBER", fieldName);
+                props.put("CONSTANT", fieldName);
+            props.put("FIELD", fieldName);
+            props.put("MEMBER", fieldName);
             elem = elem.getEnclosingElement();
             break;
 
@@ -2698,28 +3443,28 @@ public final class Configuration {
                 }
             } while (true);
             String clsName = cls.toString();
-            props.setProperty("CLASS", clsName);
+            props.put("CLASS", clsName);
             switch (bottom) {
             case ENUM:
-                props.setProperty("ENUM", clsName);
+                props.put("ENUM", clsName);
                 break;
 
             case INTERFACE:
-                props.setProperty("IFACE", clsName);
+                props.put("IFACE", clsName);
                 break;
 
             case ANNOTATION_TYPE:
-                props.setProperty("ANNOT", clsName);
+                props.put("ANNOT", clsName);
                 break;
 
             default:
                 if (types.isSubtype(type.asType(), javaLangError))
-                    props.setProperty("ERROR", clsName);
+                    props.put("ERROR", clsName);
                 else if (types.isSubtype(type.asType(),
                                          javaLangRuntimeException))
-                    props.setProperty("RTEXCEPT", clsName);
+                    props.put("RTEXCEPT", clsName);
                 else if (types.isSubtype(type.asType(), javaLangException))
-                    props.setProperty("EXCEPT", clsName);
+                    props.put("EXCEPT", clsName);
                 break;
             }
             break;
@@ -2731,7 +3476,7 @@ public final class Configuration {
         /* Record the package name. */
         switch (elem.getKind()) {
         case PACKAGE:
-            props.setProperty("PACKAGE", ((PackageElement) elem)
+            props.put("PACKAGE", ((PackageElement) elem)
                 .getQualifiedName().toString());
             break;
 
@@ -2747,7 +3492,7 @@ public final class Configuration {
         /* Record the module name. */
         ModuleElement mod = elements.getModuleOf(elem);
         if (!mod.isUnnamed())
-            props.setProperty("MODULE", mod.getQualifiedName().toString());
+            props.put("MODULE", mod.getQualifiedName().toString());
     }
 
     /**
@@ -2803,13 +3548,37 @@ public final class Configuration {
     }
 
     /**
-     * Interpret flat text as a documentation comment.
+     * Holds the results of {@link #unflattenDoc(String)}, indexed by
+     * the flat text, and shared by all slices
+     */
+    private final Map<String, List<? extends DocTree>> unflattened =
+        new ConcurrentHashMap<>();
+
+    private final LongAdder unflattenedHits = new LongAdder();
+
+    private final LongAdder unflattenedMisses = new LongAdder();
+
+    /**
+     * Interpret flat text as a documentation comment. Results are
+     * cached, so the same text is parsed only once.
      * 
      * @param text the flat text
      * 
      * @return the text interpreted as a documentation comment
      */
     public final List<? extends DocTree> unflattenDoc(String text) {
+        List<? extends DocTree> cached = unflattened.get(text);
+        if (cached != null) {
+            unflattenedHits.increment();
+            return cached;
+        }
+        unflattenedMisses.increment();
+        List<? extends DocTree> result = parseFlatText(text);
+        cached = unflattened.putIfAbsent(text, result);
+        return cached != null ? cached : result;
+    }
+
+    private List<? extends DocTree> parseFlatText(String text) {
         String rawText = "<body>" + text + "</body>";
         FileObject file = new FileObject() {
             @Override
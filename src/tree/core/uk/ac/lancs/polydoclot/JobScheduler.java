@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+
+package uk.ac.lancs.polydoclot;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background jobs on a fixed set of threads, applying
+ * back-pressure to submitters. Only a bounded number of jobs may be
+ * pending (queued or running) at once, and further submissions block
+ * until earlier jobs complete. Completion of all jobs is signalled as
+ * soon as the last one finishes.
+ * 
+ * <p>
+ * Because submitters may block, a job must not itself submit jobs,
+ * nor wait for jobs submitted after it.
+ * 
+ * @author simpsons
+ */
+final class JobScheduler implements Executor {
+    private final ThreadPoolExecutor workers;
+
+    private final Semaphore capacity;
+
+    private final int limit;
+
+    private final AtomicInteger submitted = new AtomicInteger();
+
+    private final AtomicInteger peak = new AtomicInteger();
+
+    /**
+     * Counts jobs submitted but not yet completed, and is used to
+     * signal their completion
+     */
+    private int pending = 0;
+
+    /**
+     * Create a scheduler.
+     * 
+     * @param threads the number of threads to run jobs on
+     * 
+     * @param limit the maximum number of pending jobs
+     */
+    JobScheduler(int threads, int limit) {
+        this.limit = limit;
+        this.capacity = new Semaphore(limit);
+        AtomicInteger serial = new AtomicInteger();
+        this.workers =
+            new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                                   new LinkedBlockingQueue<>(), r -> {
+                                       Thread t = new Thread(r, "job-"
+                                           + serial.getAndIncrement());
+                                       t.setDaemon(true);
+                                       return t;
+                                   });
+    }
+
+    /**
+     * Submit a job, blocking until there is capacity for it.
+     * 
+     * @param job the job to run
+     * 
+     * @throws IllegalStateException if the calling thread is
+     * interrupted while waiting for capacity
+     */
+    @Override
+    public void execute(Runnable job) {
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted awaiting capacity",
+                                            e);
+        }
+        synchronized (this) {
+            pending++;
+        }
+        submitted.incrementAndGet();
+        peak.accumulateAndGet(limit - capacity.availablePermits(),
+                              Math::max);
+        try {
+            workers.execute(() -> {
+                try {
+                    job.run();
+                } finally {
+                    complete();
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            complete();
+            throw e;
+        }
+    }
+
+    private void complete() {
+        capacity.release();
+        synchronized (this) {
+            if (--pending == 0) notifyAll();
+        }
+    }
+
+    /**
+     * Get the number of jobs waiting for a thread.
+     * 
+     * @return the current queue depth
+     */
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Get the number of jobs currently running.
+     * 
+     * @return the number of active jobs
+     */
+    public int getActiveCount() {
+        return workers.getActiveCount();
+    }
+
+    /**
+     * Get the number of jobs submitted but not completed.
+     * 
+     * @return the number of pending jobs
+     */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * Get the number of jobs submitted so far.
+     * 
+     * @return the number of submitted jobs
+     */
+    public int getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Get the largest number of jobs that have been pending at once.
+     * 
+     * @return the peak number of pending jobs
+     */
+    public int getPeakPendingCount() {
+        return peak.get();
+    }
+
+    /**
+     * Wait until no jobs are pending, or until a timeout expires.
+     * 
+     * @param timeout the maximum time to wait, in milliseconds
+     * 
+     * @return {@code true} if no jobs are pending
+     * 
+     * @throws InterruptedException if the calling thread is interrupted
+     * while waiting
+     */
+    public synchronized boolean awaitIdle(long timeout)
+        throws InterruptedException {
+        final long expiry = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (pending > 0 && remaining > 0) {
+            wait(remaining);
+            remaining = expiry - System.currentTimeMillis();
+        }
+        return pending == 0;
+    }
+
+    /**
+     * Release the threads. No further jobs may be submitted.
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+package uk.ac.lancs.polydoclot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import uk.ac.lancs.polydoclot.imports.DocImport;
+
+/**
+ * Combines the outputs of runs with
+ * <kbd>{@linkplain Polydoclot#getSupportedOptions() --shard}</kbd> into
+ * a single installation. It is invoked as:
+ * 
+ * <pre>
+ * java -cp polydoclot.jar uk.ac.lancs.polydoclot.MergeTool -d <var>dir</var> <var>shard</var> ...
+ * </pre>
+ * 
+ * <p>
+ * Each <var>shard</var> is the output directory or zip of one run, and
+ * the merged installation is written to <var>dir</var>. Files that only
+ * one shard generated are copied. Files generated by several shards
+ * must be identical, except for the following, which are merged:
+ * 
+ * <dl>
+ * 
+ * <dt><samp>{@value DocImport#ELEMENT_LIST_NAME}</samp> and
+ * <samp>{@value DocImport#PACKAGE_LIST_NAME}</samp></dt>
+ * 
+ * <dd>
+ * <p>
+ * The lines of all shards are combined, with packages before modules.
+ * 
+ * <dt><samp>standard-sitemap.xml</samp></dt>
+ * 
+ * <dd>
+ * <p>
+ * The elements described by all shards are combined into one sitemap
+ * per slice.
+ * 
+ * <dt><samp>overview-summary.html</samp></dt>
+ * 
+ * <dd>
+ * <p>
+ * The lists of undocumented elements of all shards are combined into
+ * one overview per slice.
+ * 
+ * </dl>
+ * 
+ * <p>
+ * Gzip-compressed copies of merged files are regenerated. The page
+ * hashes of <kbd>--incremental</kbd> are specific to each shard, so
+ * they are not copied.
+ * 
+ * @author simpsons
+ */
+public final class MergeTool {
+    private static final String SITEMAP_NS_URI =
+        "http://standard-sitemap.org/2007/ns";
+
+    private static final String SITEMAP_PREFIX = "standard-sitemap.xml";
+
+    private static final String OVERVIEW_PREFIX = "overview-summary.html";
+
+    private static final Pattern UNDOCUMENTED_PATTERN = Pattern
+        .compile("(<div class=\"javadoc-undocumented\">.*?<ul>)(.*?)(</ul>)",
+                 Pattern.DOTALL);
+
+    private static final Pattern TAG_PATTERN = Pattern.compile("<[^>]*>");
+
+    private final ResourceBundle messageBundle;
+
+    private final List<Path> roots;
+
+    private final Path dest;
+
+    private int copiedCount, mergedCount;
+
+    private MergeTool(ResourceBundle messageBundle, List<Path> roots,
+                      Path dest) {
+        this.messageBundle = messageBundle;
+        this.roots = roots;
+        this.dest = dest;
+    }
+
+    private static String format(ResourceBundle bundle, String key,
+                                 Object... args) {
+        String pattern = bundle.getString(key);
+        return new MessageFormat(pattern, bundle.getLocale())
+            .format(args, new StringBuffer(), null).toString();
+    }
+
+    /**
+     * Indicates that shards could not be merged.
+     */
+    private static final class MergeException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        MergeException(String message) {
+            super(message);
+        }
+    }
+
+    private static String nameOf(Path root, Path file) {
+        return root.relativize(file).toString()
+            .replace(root.getFileSystem().getSeparator(), "/");
+    }
+
+    private static boolean isMerged(String name) {
+        if (name.equals(DocImport.ELEMENT_LIST_NAME) ||
+            name.equals(DocImport.PACKAGE_LIST_NAME)) return true;
+        if (name.indexOf('/') >= 0) return false;
+        return name.startsWith(SITEMAP_PREFIX) ||
+            name.startsWith(OVERVIEW_PREFIX);
+    }
+
+    private void merge() throws IOException, MergeException {
+        /* Find which shards have which files. */
+        Map<String, List<Path>> files = new TreeMap<>();
+        for (Path root : roots) {
+            try (Stream<Path> walk = Files.walk(root)) {
+                for (Path file : walk.filter(Files::isRegularFile)
+                    .collect(Collectors.toList()))
+                    files.computeIfAbsent(nameOf(root, file),
+                                          k -> new ArrayList<>())
+                        .add(file);
+            }
+        }
+        files.remove(PageManifest.MANIFEST_NAME);
+
+        /* Compressed copies of merged files are regenerated. */
+        Collection<String> compressed = new HashSet<>();
+        for (String name : new ArrayList<>(files.keySet())) {
+            if (!name.endsWith(MetadataGenerator.GZIP_SUFFIX)) continue;
+            String base = name.substring(0, name.length()
+                - MetadataGenerator.GZIP_SUFFIX.length());
+            if (!isMerged(base) || !files.containsKey(base)) continue;
+            files.remove(name);
+            compressed.add(base);
+        }
+
+        for (Map.Entry<String, List<Path>> entry : files.entrySet()) {
+            String name = entry.getKey();
+            List<Path> sources = entry.getValue();
+            Path target = dest.resolve(name);
+            Files.createDirectories(target.getParent());
+            if (!isMerged(name) || sources.size() == 1) {
+                Path first = sources.get(0);
+                for (Path other : sources.subList(1, sources.size()))
+                    if (!sameContent(first, other))
+                        throw new MergeException(format(messageBundle,
+                                                        "merge-tool.conflict",
+                                                        name, first, other));
+                Files.copy(first, target);
+                if (compressed.contains(name)) writeCompressed(target);
+                copiedCount++;
+                continue;
+            }
+
+            final byte[] content;
+            if (name.startsWith(SITEMAP_PREFIX))
+                content = mergeSitemaps(sources);
+            else if (name.startsWith(OVERVIEW_PREFIX))
+                content = mergeOverviews(sources);
+            else
+                content = mergeLists(sources);
+            Files.write(target, content);
+            if (compressed.contains(name)) writeCompressed(target);
+            mergedCount++;
+        }
+    }
+
+    private static boolean sameContent(Path a, Path b) throws IOException {
+        if (Files.size(a) != Files.size(b)) return false;
+        return Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(b));
+    }
+
+    private static void writeCompressed(Path file) throws IOException {
+        Path sibling = file.resolveSibling(file.getFileName()
+            + MetadataGenerator.GZIP_SUFFIX);
+        try (OutputStream out =
+            new GZIPOutputStream(Files.newOutputStream(sibling))) {
+            Files.copy(file, out);
+        }
+    }
+
+    private static byte[] mergeLists(List<Path> sources) throws IOException {
+        Collection<String> packages = new LinkedHashSet<>();
+        Collection<String> modules = new LinkedHashSet<>();
+        for (Path source : sources) {
+            for (String line : Files.readAllLines(source,
+                                                  StandardCharsets.UTF_8)) {
+                if (line.isEmpty()) continue;
+                if (line.startsWith(DocImport.MODULE_LINE_PREFIX))
+                    modules.add(line);
+                else
+                    packages.add(line);
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        for (String line : packages)
+            result.append(line).append('\n');
+        for (String line : modules)
+            result.append(line).append('\n');
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Element findUnlisted(Document doc) {
+        for (Node n = doc.getDocumentElement().getFirstChild(); n != null;
+             n = n.getNextSibling()) {
+            if (!(n instanceof Element)) continue;
+            Element elem = (Element) n;
+            if (SITEMAP_NS_URI.equals(elem.getNamespaceURI()) &&
+                "item".equals(elem.getLocalName()) &&
+                "exclude".equals(elem.getAttribute("tree"))) return elem;
+        }
+        return null;
+    }
+
+    private static void stripBlanks(Node parent) {
+        for (Node n = parent.getFirstChild(); n != null;) {
+            Node next = n.getNextSibling();
+            if (n.getNodeType() == Node.TEXT_NODE &&
+                n.getTextContent().isBlank())
+                parent.removeChild(n);
+            else
+                stripBlanks(n);
+            n = next;
+        }
+    }
+
+    private byte[] mergeSitemaps(List<Path> sources)
+        throws IOException, MergeException {
+        try {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setNamespaceAware(true);
+            DocumentBuilder db = dbf.newDocumentBuilder();
+            Document base = null;
+            Element baseUnlisted = null;
+            Collection<String> ids = new HashSet<>();
+            for (Path source : sources) {
+                Document doc;
+                try (InputStream in = Files.newInputStream(source)) {
+                    doc = db.parse(in);
+                }
+                Element unlisted = findUnlisted(doc);
+                if (unlisted == null)
+                    throw new MergeException(format(messageBundle,
+                                                    "merge-tool.sitemap.bad",
+                                                    source));
+                List<Element> items = new ArrayList<>();
+                for (Node n = unlisted.getFirstChild(); n != null;
+                     n = n.getNextSibling())
+                    if (n instanceof Element) items.add((Element) n);
+                if (base == null) {
+                    base = doc;
+                    baseUnlisted = unlisted;
+                    for (Element item : items)
+                        ids.add(item.getAttributeNS(XMLConstants.XML_NS_URI,
+                                                    "id"));
+                    continue;
+                }
+                for (Element item : items) {
+                    String id =
+                        item.getAttributeNS(XMLConstants.XML_NS_URI, "id");
+                    if (!ids.add(id)) continue;
+                    baseUnlisted.appendChild(base.importNode(item, true));
+                }
+            }
+
+            /* Discard indentation, so that the output is indented
+             * consistently. */
+            stripBlanks(base.getDocumentElement());
+
+            Transformer tf = TransformerFactory.newInstance().newTransformer();
+            tf.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            tf.setOutputProperty(OutputKeys.INDENT, "yes");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            tf.transform(new DOMSource(base), new StreamResult(out));
+            return out.toByteArray();
+        } catch (ParserConfigurationException | SAXException
+            | TransformerException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static String visibleText(String item) {
+        return TAG_PATTERN.matcher(item).replaceAll("").trim();
+    }
+
+    private static byte[] mergeOverviews(List<Path> sources)
+        throws IOException {
+        /* Pages are encoded in their slices' character encodings, but
+         * the markup to be found is ASCII, so decode byte-for-byte. */
+        String base = null;
+        Matcher baseMatch = null;
+        Collection<String> items = new LinkedHashSet<>();
+        for (Path source : sources) {
+            String text = new String(Files.readAllBytes(source),
+                                     StandardCharsets.ISO_8859_1);
+            if (base == null) base = text;
+            Matcher m = UNDOCUMENTED_PATTERN.matcher(text);
+            if (!m.find()) continue;
+            if (baseMatch == null) {
+                base = text;
+                baseMatch = m;
+            }
+            for (String item : m.group(2).split("<li>")) {
+                item = item.trim();
+                if (!item.isEmpty()) items.add(item);
+            }
+        }
+        if (baseMatch == null)
+            return base.getBytes(StandardCharsets.ISO_8859_1);
+
+        List<String> sorted = new ArrayList<>(items);
+        sorted.sort((a, b) -> String.CASE_INSENSITIVE_ORDER
+            .compare(visibleText(a), visibleText(b)));
+        StringBuilder result = new StringBuilder();
+        result.append(base, 0, baseMatch.end(1)).append('\n');
+        for (String item : sorted)
+            result.append("<li>").append(item).append('\n');
+        result.append(base, baseMatch.start(3), base.length());
+        return result.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Merge the outputs of sharded runs.
+     * 
+     * @param args the command-line arguments
+     */
+    public static void main(String[] args) {
+        ResourceBundle bundle = ResourceBundle
+            .getBundle(MergeTool.class.getPackage().getName() + ".Messages");
+        Path dir = null;
+        List<Path> shards = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-d") && i + 1 < args.length) {
+                dir = Paths.get(args[++i]);
+            } else if (!arg.startsWith("-")) {
+                shards.add(Paths.get(arg));
+            } else {
+                shards.clear();
+                break;
+            }
+        }
+        if (dir == null || shards.isEmpty()) {
+            System.err.println(format(bundle, "merge-tool.usage"));
+            System.exit(1);
+        }
+
+        List<FileSystem> archives = new ArrayList<>();
+        try {
+            List<Path> roots = new ArrayList<>(shards.size());
+            for (Path shard : shards) {
+                if (Files.isDirectory(shard)) {
+                    roots.add(shard);
+                } else {
+                    FileSystem fs =
+                        FileSystems.newFileSystem(shard, (ClassLoader) null);
+                    archives.add(fs);
+                    roots.add(fs.getPath("/"));
+                }
+            }
+            MergeTool tool = new MergeTool(bundle, roots, dir);
+            tool.merge();
+            System.err.println(format(bundle, "merge-tool.stats",
+                                      shards.size(), tool.copiedCount,
+                                      tool.mergedCount, dir));
+        } catch (IOException ex) {
+            System.err.println(format(bundle, "merge-tool.failure",
+                                      ex.getMessage(), dir));
+            System.exit(1);
+        } catch (MergeException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        } finally {
+            for (FileSystem fs : archives) {
+                try {
+                    fs.close();
+                } catch (IOException ex) {
+                    /* Nothing was written to it. */
+                }
+            }
+        }
+    }
+}
@@ -148,7 +148,7 @@ public final class MetadataGenerator {
                              Polydoclot.POLYDOCLOT_SCHEME
                                  + config.hypertextLinkSuffix);
         Path propsFile = dir.resolve(DocImport.PROPERTIES_NAME);
-        try (OutputStream out = Files.newOutputStream(propsFile)) {
+        try (OutputStream out = config.openOutputFile(propsFile)) {
             docProps.storeToXML(out, "Polyglot Doclet");
         } catch (IOException ex) {
             report("output.meta-data.failure.write", ex, propsFile);
@@ -166,6 +166,11 @@ public final class MetadataGenerator {
             ElementFilter.modulesIn(config.env.getIncludedElements());
         modList.removeAll(config.excludedElements);
 
+        /* When sharded, list only this shard's packages and modules,
+         * so that the shards' lists can be merged. */
+        pkgList.removeIf(p -> !config.isInShard(p));
+        modList.removeIf(m -> !config.isInShard(m));
+
         writeOfflineFiles(config.outputDirectory, pkgList, modList);
         if (config.offlineDirectory != null)
             writeOfflineFiles(config.offlineDirectory, pkgList, modList);
@@ -173,8 +178,8 @@ public final class MetadataGenerator {
         Path defStyles = config.outputDirectory.resolve(DEFAULT_STYLES_NAME);
         try (InputStream in =
             getClass().getResourceAsStream("default-styles.css")) {
-            try {
-                Files.copy(in, defStyles);
+            try (OutputStream out = config.openServedFile(defStyles)) {
+                in.transferTo(out);
             } catch (IOException ex) {
                 report("output.default-stylesheet.failure.copy", ex,
                        defStyles);
@@ -187,8 +192,8 @@ public final class MetadataGenerator {
         if (config.styleSource != null) {
             Path copiedStyles =
                 config.outputDirectory.resolve(COPIED_STYLES_NAME);
-            try {
-                Files.copy(config.styleSource, copiedStyles);
+            try (OutputStream out = config.openServedFile(copiedStyles)) {
+                Files.copy(config.styleSource, out);
             } catch (IOException ex) {
                 report("user-content.stylesheet.copied.failure", ex,
                        config.styleSource, copiedStyles);
@@ -199,11 +204,13 @@ public final class MetadataGenerator {
             Path contentTypesFile =
                 config.outputDirectory.resolve(CONTENT_TYPES_NAME);
             try (
-                PrintWriter out = new PrintWriter(new OutputStreamWriter(Files
-                    .newOutputStream(contentTypesFile), StandardCharsets.UTF_8))) {
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(config
+                    .openOutputFile(contentTypesFile), StandardCharsets.UTF_8))) {
                 out.printf("DEFAULT: t=text/plain c=UTF-8\n");
                 out.printf(".xml: t=application/xml\n");
                 out.printf(".css: t=text/css c=UTF-8\n");
+                if (config.gzipSiblings)
+                    out.printf("%s: e=gzip\n", GZIP_SUFFIX);
                 out.printf("%s: t=text/html\n", config.hypertextFileSuffix);
                 for (SliceSpecification spec : config.sliceSpecs) {
                     out.printf("%s: c=%s l=%s\n",
@@ -225,6 +232,12 @@ public final class MetadataGenerator {
      */
     public static final String CONTENT_TYPES_NAME = "content-types.tab";
 
+    /**
+     * The suffix appended to the name of a page, sitemap or stylesheet
+     * to form the name of its gzip-compressed copy
+     */
+    public static final String GZIP_SUFFIX = ".gz";
+
     /**
      * The name of the file relative to the document base into which the
      * doclet's default styles should be added
@@ -241,8 +254,8 @@ public final class MetadataGenerator {
                            Collection<? extends PackageElement> pkgList,
                            Collection<? extends ModuleElement> modList)
         throws IOException {
-        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(Files
-            .newOutputStream(file), StandardCharsets.UTF_8))) {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(config
+            .openOutputFile(file), StandardCharsets.UTF_8))) {
             for (PackageElement pkg : pkgList)
                 out.printf("%s\n", pkg.getQualifiedName());
             if (modList != null) for (ModuleElement mod : modList)
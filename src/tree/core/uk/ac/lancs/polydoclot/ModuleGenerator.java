@@ -79,8 +79,7 @@ public class ModuleGenerator {
              * working on them. */
             if (module.isUnnamed()) continue;
             if (config.excludedElements.contains(module)) continue;
-            config.diagnostic("output.module.item",
-                              module.getQualifiedName());
+            if (!config.isInShard(module)) continue;
 
             /* Work out where this module's documentation goes, both
              * internally and externally. */
@@ -88,6 +87,13 @@ public class ModuleGenerator {
             final Path moduleFile = config.outputDirectory.resolve(module
                 .getQualifiedName().toString().replace('.', '$') + "-module"
                 + config.hypertextFileSuffix);
+
+            /* Skip the module if its inputs haven't changed. */
+            if (config.pageManifest != null &&
+                config.pageManifest.isCurrent(slice, module, moduleFile))
+                continue;
+            config.diagnostic("output.module.item",
+                              module.getQualifiedName());
             final OutputContext blockCtxt =
                 slice.getBlockContext(moduleLocation, module);
 
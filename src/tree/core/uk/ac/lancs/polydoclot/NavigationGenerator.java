@@ -39,7 +39,6 @@ package uk.ac.lancs.polydoclot;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -238,7 +237,8 @@ public final class NavigationGenerator {
     public void run() {
         slice.config.diagnostic("output.navigation");
 
-        URI navLoc = URI.create("standard-sitemap.xml");
+        URI navLoc = slice.config.outputDirectory.toUri()
+            .resolve("standard-sitemap.xml");
         Path navFile = slice.config.outputDirectory
             .resolve("standard-sitemap.xml" + slice.spec.suffix);
 
@@ -344,10 +344,13 @@ public final class NavigationGenerator {
             root.appendChild(unlisted);
             unlisted.setAttribute("tree", "exclude");
 
-            /* Create elements to describe modules. */
+            /* Create elements to describe modules. When sharded, only
+             * this shard's elements are described, and the shards'
+             * sitemaps are merged by MergeTool. */
             for (javax.lang.model.element.Element item : slice.config.env
                 .getIncludedElements()) {
                 if (slice.config.excludedElements.contains(item)) continue;
+                if (!slice.config.isInShard(item)) continue;
                 if (item instanceof ModuleElement
                     && ((ModuleElement) item).isUnnamed()) continue;
                 if (item instanceof PackageElement
@@ -481,7 +484,7 @@ public final class NavigationGenerator {
                 TransformerFactory.newInstance().newTransformer();
             tf.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
             tf.setOutputProperty(OutputKeys.INDENT, "yes");
-            try (OutputStream out = Files.newOutputStream(navFile)) {
+            try (OutputStream out = slice.config.openServedFile(navFile)) {
                 tf.transform(new DOMSource(doc), new StreamResult(out));
             } catch (IOException | TransformerException ex) {
                 slice.config.report(Kind.ERROR, "output.stdmap.failure.write",
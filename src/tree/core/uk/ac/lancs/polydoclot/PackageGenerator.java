@@ -37,6 +37,7 @@
 package uk.ac.lancs.polydoclot;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.nio.file.FileVisitResult;
@@ -44,7 +45,6 @@ import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -93,9 +93,9 @@ public final class PackageGenerator {
         for (PackageElement pkgDef : ElementFilter
             .packagesIn(env.getIncludedElements())) {
             if (config.excludedElements.contains(pkgDef)) continue;
+            if (!config.isInShard(pkgDef)) continue;
 
             Name pkgName = pkgDef.getQualifiedName();
-            config.diagnostic("output.package.item", pkgName);
             final URI pkgLoc = config.locateElement(pkgDef);
             final Path pkgFile;
 
@@ -111,6 +111,12 @@ public final class PackageGenerator {
                 pkgFile = pos;
             }
 
+            /* Skip the package if its inputs haven't changed. */
+            if (config.pageManifest != null &&
+                config.pageManifest.isCurrent(slice, pkgDef, pkgFile))
+                continue;
+            config.diagnostic("output.package.item", pkgName);
+
             DocCommentTree pkgDoc = config.docTrees.getDocCommentTree(pkgDef);
 
             try {
@@ -359,6 +365,7 @@ public final class PackageGenerator {
                 Path staticsIn = srcFile.getParent().resolve("doc-files");
                 if (!Files.isDirectory(staticsIn)) break;
                 Path staticsOut = pkgFile.getParent().resolve("doc-files");
+                if (!config.claimCopy(staticsOut)) break;
                 try {
                     System.err.printf("Copying files...%n");
                     FileVisitor<Path> action = new SimpleFileVisitor<>() {
@@ -370,9 +377,10 @@ public final class PackageGenerator {
                                 .resolve(staticsIn.relativize(file));
                             try {
                                 Files.createDirectories(out.getParent());
-                                Files
-                                    .copy(file, out,
-                                          StandardCopyOption.REPLACE_EXISTING);
+                                try (OutputStream copy =
+                                    config.openOutputFile(out)) {
+                                    Files.copy(file, copy);
+                                }
                             } catch (IOException e) {
                                 config.report(Kind.ERROR,
                                               "doc-files.failure.io",
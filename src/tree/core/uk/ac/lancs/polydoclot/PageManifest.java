@@ -0,0 +1,447 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+package uk.ac.lancs.polydoclot;
+
+import com.sun.source.doctree.DocCommentTree;
+import com.sun.source.doctree.ReferenceTree;
+import com.sun.source.doctree.UnknownInlineTagTree;
+import com.sun.source.util.DocTreeScanner;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.ModuleElement;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+/**
+ * Records a hash of the inputs of each generated page, so that pages
+ * whose inputs have not changed since the previous run need not be
+ * generated again. The hashes are kept in the file
+ * <samp>{@value #MANIFEST_NAME}</samp> in the output directory, one
+ * line per page, giving the hash and the page's path relative to the
+ * output directory.
+ * 
+ * <p>
+ * A page's inputs are the signatures and documentation comments of the
+ * elements it documents, of their members, and of their supertypes and
+ * the supertypes' members, from which documentation may be inherited.
+ * They include the signatures, constant values and comments of
+ * elements referenced from those comments, as by <code>&#64;link</code>,
+ * <code>&#64;see</code> and <code>&#64;value</code>, but not of
+ * elements referenced in turn from documentation copied from them.
+ * They also include the slice specification, and a fingerprint of the
+ * run, which covers the doclet version, the overview comment, the
+ * doclet's options, the imports, and the names of all included
+ * elements, so that adding or removing an element causes all pages to
+ * be regenerated, as links to it may appear anywhere.
+ * 
+ * <p>
+ * A class's page is checked together with its members' pages, so the
+ * class is regenerated if any of them is missing.
+ * 
+ * <p>
+ * When undocumented elements are to be listed, they are only detected
+ * while pages are generated, so no page is skipped, although the
+ * manifest is still written.
+ * 
+ * @author simpsons
+ */
+final class PageManifest {
+    /**
+     * The name of the file relative to the document base into which
+     * page hashes are written
+     */
+    public static final String MANIFEST_NAME = "page-hashes";
+
+    private final Configuration config;
+
+    private final Path file;
+
+    private final Map<String, String> previous;
+
+    private final Map<String, String> current =
+        new ConcurrentSkipListMap<>();
+
+    private final byte[] runHash;
+
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    private final AtomicInteger generated = new AtomicInteger();
+
+    /**
+     * Load the manifest of the previous run, if present, and compute a
+     * fingerprint of this run.
+     * 
+     * @param config the configuration whose output directory holds the
+     * manifest
+     * 
+     * @param settings further settings that affect every page, such as
+     * raw titles and import locations
+     * 
+     * @throws IOException if the manifest exists but could not be read
+     */
+    PageManifest(Configuration config, Collection<?> settings)
+        throws IOException {
+        this.config = config;
+        this.file = config.outputDirectory.resolve(MANIFEST_NAME);
+
+        /* Load the hashes of the previous run. */
+        Map<String, String> previous = new HashMap<>();
+        try (BufferedReader in =
+            new BufferedReader(new InputStreamReader(config
+                .openExistingOutputFile(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int sp = line.indexOf(' ');
+                if (sp < 0) continue;
+                previous.put(line.substring(sp + 1), line.substring(0, sp));
+            }
+        } catch (NoSuchFileException ex) {
+            /* This is the first incremental run. */
+        }
+        this.previous = Collections.unmodifiableMap(previous);
+
+        /* If this run fails, the next must not trust pages that this
+         * one might have left half-written. */
+        config.discardOutputFile(file);
+
+        /* Fingerprint everything that can affect any page. */
+        MessageDigest digest = newDigest();
+        add(digest, Configuration.buildProperties.get("revision"));
+        add(digest, config.overviewDoc);
+        add(digest, config.hypertextLinkSuffix);
+        add(digest, config.styleSource);
+        add(digest, config.style);
+        add(digest, config.tidyProgram);
+        add(digest, config.tidyInternally);
+        add(digest, config.gzipSiblings);
+        Map<String, String> jars = new TreeMap<>();
+        config.dirToJar.forEach((dir, jar) -> jars.put(dir.toString(), jar));
+        add(digest, jars);
+        add(digest, new TreeMap<>(config.jarToVersion));
+        for (Object setting : settings)
+            add(digest, setting);
+        for (Element elem : config.env.getIncludedElements())
+            add(digest, elem.getKind() + " " + elem);
+        this.runHash = digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError("unreachable", ex);
+        }
+    }
+
+    private static void add(MessageDigest digest, Object value) {
+        digest.update(String.valueOf(value)
+            .getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Add an element's signature and documentation comment to a
+     * digest.
+     * 
+     * @param digest the digest to update
+     * 
+     * @param elem the element to add
+     */
+    private void addElement(MessageDigest digest, Element elem) {
+        add(digest, elem.getKind());
+        add(digest, elem);
+        add(digest, elem.getModifiers());
+        add(digest, elem.asType());
+        for (AnnotationMirror annot : elem.getAnnotationMirrors())
+            add(digest, annot);
+        if (elem instanceof ExecutableElement) {
+            ExecutableElement exec = (ExecutableElement) elem;
+            for (VariableElement param : exec.getParameters())
+                add(digest, param.getSimpleName());
+            for (TypeMirror thrown : exec.getThrownTypes())
+                add(digest, thrown);
+            add(digest, exec.getDefaultValue());
+        } else if (elem instanceof VariableElement) {
+            add(digest, ((VariableElement) elem).getConstantValue());
+        } else if (elem instanceof TypeElement) {
+            TypeElement type = (TypeElement) elem;
+            add(digest, type.getSuperclass());
+            for (TypeMirror iface : type.getInterfaces())
+                add(digest, iface);
+        }
+        add(digest, config.deprecatedElements.containsKey(elem));
+        DocCommentTree doc = config.docTrees.getDocCommentTree(elem);
+        add(digest, doc);
+    }
+
+    /**
+     * Add the elements referenced from an element's documentation
+     * comment to a digest. Links to them and their constant values may
+     * appear in the element's documentation.
+     * 
+     * @param digest the digest to update
+     * 
+     * @param elem the element whose comment is to be scanned
+     */
+    private void addReferences(MessageDigest digest, Element elem) {
+        DocCommentTree doc = config.docTrees.getDocCommentTree(elem);
+        if (doc == null) return;
+        Collection<String> sigs = new LinkedHashSet<>();
+        new DocTreeScanner<Void, Void>() {
+            @Override
+            public Void visitReference(ReferenceTree node, Void p) {
+                sigs.add(node.getSignature());
+                return null;
+            }
+
+            @Override
+            public Void visitUnknownInlineTag(UnknownInlineTagTree node,
+                                              Void p) {
+                if (node.getTagName().equals("plainvalue")) {
+                    String sig = config
+                        .extractLabel(node.getContent(), new ArrayList<>());
+                    if (sig != null && !sig.equals(".")) sigs.add(sig);
+                }
+                return super.visitUnknownInlineTag(node, p);
+            }
+        }.scan(doc, null);
+        for (String sig : sigs) {
+            add(digest, sig);
+            Element refed = config.resolveSignatureQuietly(elem, sig);
+            if (refed != null) addElement(digest, refed);
+        }
+    }
+
+    private void addMembers(MessageDigest digest, Element elem) {
+        addElement(digest, elem);
+        addReferences(digest, elem);
+        for (Element memb : elem.getEnclosedElements()) {
+            addElement(digest, memb);
+            addReferences(digest, memb);
+        }
+    }
+
+    private static void addNames(MessageDigest digest,
+                                 Collection<? extends Element> elems) {
+        if (elems == null) return;
+        for (Element elem : elems)
+            add(digest, elem);
+    }
+
+    private MessageDigest begin(Slice slice) {
+        MessageDigest digest = newDigest();
+        digest.update(runHash);
+        add(digest, slice.spec.locale);
+        add(digest, slice.spec.suffix);
+        add(digest, slice.spec.charset);
+        return digest;
+    }
+
+    /**
+     * Determine whether a class's pages are up to date, and record the
+     * hash of their inputs for the next run. The class's members, the
+     * classes that use it, and its supertypes and their members are
+     * taken into account.
+     * 
+     * @param slice the slice being generated
+     * 
+     * @param typeDef the class
+     * 
+     * @param page the class's page
+     * 
+     * @param memberPages the pages of the class's members
+     * 
+     * @return {@code true} if the pages need not be generated
+     */
+    boolean isCurrent(Slice slice, TypeElement typeDef, Path page,
+                      Collection<? extends Path> memberPages) {
+        MessageDigest digest = begin(slice);
+        addMembers(digest, typeDef);
+        /* The inheritance order is not stable between runs where
+         * there are ties, so impose one. */
+        List<TypeElement> sups =
+            new ArrayList<>(config.getInheritanceOrder(typeDef));
+        sups.sort(Comparator.comparing(t -> t.getQualifiedName().toString()));
+        for (TypeElement sup : sups)
+            addMembers(digest, sup);
+        addNames(digest, config.knownSubtypes.get(typeDef));
+        addNames(digest, config.knownDirectSubtypes.get(typeDef));
+        addNames(digest, config.producers.get(typeDef));
+        addNames(digest, config.consumers.get(typeDef));
+        addNames(digest, config.transformers.get(typeDef));
+        addNames(digest, config.deprecators.get(typeDef));
+        List<Path> pages = new ArrayList<>(memberPages.size() + 1);
+        pages.add(page);
+        pages.addAll(memberPages);
+        return check(pages, digest);
+    }
+
+    /**
+     * Determine whether a package's page is up to date, and record the
+     * hash of its inputs for the next run. The classes of the package
+     * are taken into account.
+     * 
+     * @param slice the slice being generated
+     * 
+     * @param pkgDef the package
+     * 
+     * @param page the package's page
+     * 
+     * @return {@code true} if the page need not be generated
+     */
+    boolean isCurrent(Slice slice, PackageElement pkgDef, Path page) {
+        MessageDigest digest = begin(slice);
+        addMembers(digest, pkgDef);
+        return check(Collections.singletonList(page), digest);
+    }
+
+    /**
+     * Determine whether a module's page is up to date, and record the
+     * hash of its inputs for the next run. The module's directives and
+     * packages are taken into account.
+     * 
+     * @param slice the slice being generated
+     * 
+     * @param module the module
+     * 
+     * @param page the module's page
+     * 
+     * @return {@code true} if the page need not be generated
+     */
+    boolean isCurrent(Slice slice, ModuleElement module, Path page) {
+        MessageDigest digest = begin(slice);
+        addElement(digest, module);
+        addReferences(digest, module);
+        for (ModuleElement.Directive directive : module.getDirectives())
+            add(digest, directive);
+        for (PackageElement pkg : ElementFilter
+            .packagesIn(module.getEnclosedElements())) {
+            addElement(digest, pkg);
+            addReferences(digest, pkg);
+        }
+        return check(Collections.singletonList(page), digest);
+    }
+
+    /**
+     * Record the hash of a set of pages generated together, and
+     * determine whether they are up to date.
+     * 
+     * @param pages the pages, the first of which is counted
+     * 
+     * @param digest the digest of the pages' inputs
+     * 
+     * @return {@code true} if every page has the same hash as in the
+     * previous run, and still exists
+     */
+    private boolean check(List<? extends Path> pages, MessageDigest digest) {
+        byte[] hash = digest.digest();
+        StringBuilder text = new StringBuilder(hash.length * 2);
+        for (byte b : hash)
+            text.append(String.format("%02x", b & 0xff));
+        String hex = text.toString();
+        boolean current = !config.listUndocumented;
+        for (Path page : pages) {
+            String key = config.outputDirectory.relativize(page).toString();
+            this.current.put(key, hex);
+            if (current && !(hex.equals(previous.get(key)) &&
+                config.outputFileExists(page))) current = false;
+        }
+
+        if (current) {
+            skipped.incrementAndGet();
+            return true;
+        }
+        generated.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Get the number of pages found to be up to date.
+     * 
+     * @return the number of pages skipped
+     */
+    int getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * Get the number of pages found to be out of date.
+     * 
+     * @return the number of pages generated
+     */
+    int getGeneratedCount() {
+        return generated.get();
+    }
+
+    /**
+     * Write the hashes of all pages checked in this run, replacing the
+     * previous manifest.
+     * 
+     * @throws IOException if the manifest could not be written
+     */
+    void write() throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(config
+            .openOutputFile(file), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String> entry : current.entrySet())
+                out.printf("%s %s\n", entry.getValue(), entry.getKey());
+        }
+    }
+}
@@ -39,15 +39,9 @@ package uk.ac.lancs.polydoclot;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
-import java.nio.file.FileStore;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
-import java.nio.file.WatchService;
-import java.nio.file.attribute.UserPrincipalLookupService;
-import java.nio.file.spi.FileSystemProvider;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -62,7 +56,6 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import javax.lang.model.SourceVersion;
 import javax.tools.Diagnostic;
@@ -71,6 +64,7 @@ import jdk.javadoc.doclet.Doclet;
 import jdk.javadoc.doclet.DocletEnvironment;
 import jdk.javadoc.doclet.Reporter;
 import uk.ac.lancs.polydoclot.imports.DocImport;
+import uk.ac.lancs.polydoclot.imports.ImportCache;
 import uk.ac.lancs.polydoclot.util.MacroFormatter;
 import uk.ac.lancs.polydoclot.util.Utils;
 
@@ -316,6 +310,11 @@ import uk.ac.lancs.polydoclot.util.Utils;
  * 
  * <dd>Natural language (e.g., <samp>en-GB</samp>)
  * 
+ * <dt><samp>e</samp>
+ * 
+ * <dd>Content encoding (e.g., <samp>gzip</samp>), written only with
+ * <kbd>{@linkplain Polydoclot#getSupportedOptions() --gzip}</kbd>
+ * 
  * </dl>
  * 
  * <p>
@@ -382,11 +381,20 @@ import uk.ac.lancs.polydoclot.util.Utils;
  * be expanded against a set of properties to generate the URI relative
  * to the installation prefix of any module, package, class or member
  * documented by this installation.
- * {@link Configuration#setElementProperties(Properties, javax.lang.model.element.Element)}
+ * {@link Configuration#setElementProperties(java.util.Map, javax.lang.model.element.Element)}
  * sets the properties for a given element.
  * 
  * </dl>
  * 
+ * <dt><samp>{@value PageManifest#MANIFEST_NAME}</samp>
+ * 
+ * <dd>
+ * <p>
+ * This file is only written with <kbd>--incremental</kbd>. Each line
+ * holds a hexadecimal hash of the inputs of a generated page, a space,
+ * and the page's path relative to the installation prefix. A later run
+ * with the same option skips pages whose hashes are unchanged.
+ * 
  * </dl>
  * 
  * </div>
@@ -445,6 +453,28 @@ public class Polydoclot implements Doclet {
 
     private String tidyProgram = "tidy";
 
+    private boolean tidyInternally = false;
+
+    private int tidyWorkers = 0;
+
+    private boolean incremental = false;
+
+    private boolean writeIfChanged = false;
+
+    private boolean gzipSiblings = false;
+
+    private Path reportFile;
+
+    private int shardIndex = 1;
+
+    private int shardCount = 1;
+
+    private int importTimeout = 60;
+
+    private Path importCacheDirectory;
+
+    private Path importIndexFile;
+
     private Map<Object, Collection<String>> groupings = new HashMap<>();
 
     private Map<Object, String> rawGroupTitles = new LinkedHashMap<>();
@@ -585,6 +615,12 @@ public class Polydoclot implements Doclet {
      * <a href="#meta-data"><cite>Generated meta-data</cite></a>.
      * 
      * <p>
+     * <var>local-prefix</var> may also name a local JAR or zip file,
+     * such as a <samp>*-javadoc.jar</samp> from a Maven or Gradle
+     * cache, in which case the meta-data files are read from the root
+     * of the archive without extracting it.
+     * 
+     * <p>
      * Note that URI prefixes can be presented without a trailing slash,
      * but are normalized by appending one if not present.
      * 
@@ -641,13 +677,120 @@ public class Polydoclot implements Doclet {
      * 
      * <dt><kbd>--tidy <var>executable</var></kbd></dt>
      * <dt><kbd>--no-tidy</kbd></dt>
+     * <dt><kbd>--tidy-internal</kbd></dt>
      * 
      * <dd>
      * <p>
      * Specify the executable for
      * <a href="https://www.w3.org/People/Raggett/tidy/">HTMLTidy</a>.
      * The default is <kbd>tidy</kbd>. <kbd>--no-tidy</kbd> turns off
-     * tidying.
+     * tidying. <kbd>--tidy-internal</kbd> tidies in-process instead,
+     * so no program is run, but the output is indented and corrected
+     * much as HTMLTidy would, and diagnostics are still written to the
+     * diagnostics directory.
+     * 
+     * <dt><kbd>--tidy-workers <var>count</var></kbd></dt>
+     * 
+     * <dd>
+     * <p>
+     * Instead of running HTMLTidy once per page, keep at most
+     * <var>count</var> HTMLTidy processes running, each tidying a batch
+     * of pages spooled to temporary files. Diagnostics are still
+     * reported and logged for each page. The default of 0 runs a
+     * process per page.
+     * 
+     * <dt><kbd>--incremental</kbd></dt>
+     * 
+     * <dd>
+     * <p>
+     * Write a hash of each page's inputs to
+     * <samp>{@value PageManifest#MANIFEST_NAME}</samp> in the output
+     * directory, and skip generating module, package and class pages
+     * whose inputs are unchanged since the previous run. A page's
+     * inputs include the signatures and comments of the elements it
+     * documents and of their supertypes, the signatures, constant
+     * values and comments of elements that those comments reference,
+     * the slice, the overview, the options and the doclet version.
+     * Elements referenced only from the comments of referenced
+     * elements are not included. A class's page is also generated if
+     * any of its members' pages is missing. Adding or removing an
+     * element causes all pages to be generated. If
+     * <kbd>-undocumented</kbd> is also given, all pages are generated.
+     * 
+     * <dt><kbd>--write-if-changed</kbd></dt>
+     * 
+     * <dd>
+     * <p>
+     * Leave pages, meta-data files and sitemaps untouched if their
+     * content would be identical to the existing files, so that their
+     * modification times are preserved. The number of unchanged files
+     * is reported. This has no effect with <kbd>-z</kbd>.
+     * 
+     * <dt><kbd>--gzip</kbd></dt>
+     * 
+     * <dd>
+     * <p>
+     * Alongside each page, sitemap and stylesheet, write a
+     * gzip-compressed copy with
+     * <samp>{@value MetadataGenerator#GZIP_SUFFIX}</samp> appended to
+     * its name, so that a server can deliver pre-compressed content
+     * without compressing on each request. The copies are compressed as
+     * the pages are written, and are declared in
+     * <samp>{@value MetadataGenerator#CONTENT_TYPES_NAME}</samp>.
+     * 
+     * <dt><kbd>--report-json <var>file</var></kbd></dt>
+     * 
+     * <dd>
+     * <p>
+     * Time each phase of the run, such as loading and installing each
+     * import, generating meta-data, and running each generator of each
+     * slice, and time the rendering, tidying and writing of each page.
+     * Write the timings to this file as JSON, with counts of pages,
+     * files and bytes written, and of link resolutions. The format is
+     * described by {@link RunReport}.
+     * 
+     * <dt><kbd>--shard <var>i</var>/<var>n</var></kbd></dt>
+     * 
+     * <dd>
+     * <p>
+     * Partition modules, packages and classes into <var>n</var> shards
+     * by hashes of their names, and generate only the pages of shard
+     * <var>i</var>, counting from 1. Nested classes are generated with
+     * their outermost classes. The package and element lists and the
+     * sitemaps describe only the shard's elements, and the overview
+     * lists only the shard's undocumented elements. Run each shard
+     * into its own directory or zip, perhaps on separate machines,
+     * with the same sources and options, and combine them with
+     * {@link MergeTool}.
+     * 
+     * <dt><kbd>--import-timeout <var>seconds</var></kbd></dt>
+     * 
+     * <dd>
+     * <p>
+     * Give up connecting to or reading from an imported installation
+     * after this many seconds. The default is 60, and 0 means wait
+     * indefinitely. All imports are fetched concurrently, but are
+     * applied in command-line order.
+     * 
+     * <dt><kbd>--import-cache <var>dir</var></kbd></dt>
+     * 
+     * <dd>
+     * <p>
+     * Keep copies of imported installations' meta-data fetched by HTTP
+     * in this directory, and revalidate them with conditional requests
+     * on later runs. If an installation cannot be reached, its stored
+     * meta-data is used instead.
+     * 
+     * <dt><kbd>--import-index <var>file</var></kbd></dt>
+     * 
+     * <dd>
+     * <p>
+     * Keep the packages of all imported installations in a compact
+     * index in this file, which is memory-mapped and searched instead
+     * of being loaded onto the heap. The file also records the
+     * installations' meta-data, so it is reused without accessing them
+     * on later runs with the same imports, and rebuilt otherwise.
+     * Delete it to pick up changes to the installations.
      * 
      * <dt><kbd>-stylesheeturi <var>uri</var></kbd></dt>
      * 
@@ -685,6 +828,14 @@ public class Polydoclot implements Doclet {
      * does not exist to ensure that it will contain only
      * doclet-generated content.
      * 
+     * <p>
+     * Files are compressed concurrently as they are completed, and
+     * files with identical content are compressed only once. The
+     * archive is then written with its entries in order of name, and
+     * replaces the original file atomically. Entries of the original
+     * that were not generated again are copied without being
+     * recompressed.
+     * 
      * <dt><kbd>-dd <var>dir</var></kbd></dt>
      * <dt><kbd>--diagnostics <var>dir</var></kbd></dt>
      * 
@@ -750,6 +901,7 @@ public class Polydoclot implements Doclet {
             @Override
             public boolean process(String option, List<String> arguments) {
                 tidyProgram = arguments.get(0);
+                tidyInternally = false;
                 return true;
             }
         }, new Option() {
@@ -781,6 +933,332 @@ public class Polydoclot implements Doclet {
             @Override
             public boolean process(String option, List<String> arguments) {
                 tidyProgram = null;
+                tidyInternally = false;
+                return true;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 0;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("tidy.internal.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--tidy-internal");
+            }
+
+            @Override
+            public String getParameters() {
+                return "";
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                tidyInternally = true;
+                return true;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 1;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("tidy.workers.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--tidy-workers");
+            }
+
+            @Override
+            public String getParameters() {
+                return format("tidy.workers.option.format");
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                tidyWorkers = parseCount(arguments.get(0));
+                return tidyWorkers >= 0;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 0;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("incremental.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--incremental");
+            }
+
+            @Override
+            public String getParameters() {
+                return "";
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                incremental = true;
+                return true;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 0;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("write-if-changed.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--write-if-changed");
+            }
+
+            @Override
+            public String getParameters() {
+                return "";
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                writeIfChanged = true;
+                return true;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 0;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("gzip.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--gzip");
+            }
+
+            @Override
+            public String getParameters() {
+                return "";
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                gzipSiblings = true;
+                return true;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 1;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("report-json.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--report-json");
+            }
+
+            @Override
+            public String getParameters() {
+                return format("report-json.option.format");
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                reportFile = Paths.get(arguments.get(0));
+                return true;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 1;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("shard.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--shard");
+            }
+
+            @Override
+            public String getParameters() {
+                return format("shard.option.format");
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                String text = arguments.get(0);
+                int slash = text.indexOf('/');
+                try {
+                    if (slash > 0) {
+                        shardIndex =
+                            Integer.parseInt(text.substring(0, slash));
+                        shardCount =
+                            Integer.parseInt(text.substring(slash + 1));
+                        if (shardCount >= 1 && shardIndex >= 1 &&
+                            shardIndex <= shardCount) return true;
+                    }
+                } catch (NumberFormatException ex) {
+                    /* Report below. */
+                }
+                reporter.print(Diagnostic.Kind.ERROR,
+                               format("shard.format.error", text));
+                return false;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 1;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("import-timeout.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--import-timeout");
+            }
+
+            @Override
+            public String getParameters() {
+                return format("import-timeout.option.format");
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                importTimeout = parseCount(arguments.get(0));
+                return importTimeout >= 0;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 1;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("import-cache.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--import-cache");
+            }
+
+            @Override
+            public String getParameters() {
+                return format("import-cache.option.format");
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                importCacheDirectory = Paths.get(arguments.get(0));
+                return true;
+            }
+        }, new Option() {
+            @Override
+            public int getArgumentCount() {
+                return 1;
+            }
+
+            @Override
+            public String getDescription() {
+                return format("import-index.option.meaning");
+            }
+
+            @Override
+            public Option.Kind getKind() {
+                return Option.Kind.STANDARD;
+            }
+
+            @Override
+            public List<String> getNames() {
+                return Collections.singletonList("--import-index");
+            }
+
+            @Override
+            public String getParameters() {
+                return format("import-index.option.format");
+            }
+
+            @Override
+            public boolean process(String option, List<String> arguments) {
+                importIndexFile = Paths.get(arguments.get(0));
                 return true;
             }
         }, new Option() {
@@ -1431,84 +1909,47 @@ public class Polydoclot implements Doclet {
         this.reporter = reporter;
     }
 
+    /**
+     * Parse a non-negative integer option argument, reporting an error
+     * if malformed.
+     * 
+     * @param text the argument text
+     * 
+     * @return the parsed value, or {@code -1} if malformed
+     */
+    private int parseCount(String text) {
+        try {
+            int value = Integer.parseInt(text);
+            if (value >= 0) return value;
+        } catch (NumberFormatException ex) {
+            /* Report below. */
+        }
+        reporter.print(Diagnostic.Kind.ERROR,
+                       format("count.format.error", text));
+        return -1;
+    }
+
     private String format(String key, Object... args) {
         String pattern = messageBundle.getString(key);
         return new MessageFormat(pattern, messageBundle.getLocale())
             .format(args, new StringBuffer(), null).toString();
     }
 
-    private FileSystem getFileSystem() throws IOException {
-        if (outputZipFile != null) {
-            Map<String, Object> zipOpts = new HashMap<>();
-            zipOpts.put("create", "true");
-            outputDirectory = null;
-            FileSystem outfs = FileSystems.newFileSystem(URI.create("jar:"
-                + outputZipFile.toAbsolutePath().toUri().toASCIIString()),
-                                                         zipOpts);
-            outputDirectory = outfs.getPath("/");
-            return outfs;
-        } else {
-            return new FileSystem() {
-                @Override
-                public Set<String> supportedFileAttributeViews() {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public FileSystemProvider provider() {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public WatchService newWatchService() throws IOException {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public boolean isReadOnly() {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public boolean isOpen() {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public UserPrincipalLookupService
-                    getUserPrincipalLookupService() {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public String getSeparator() {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public Iterable<Path> getRootDirectories() {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public PathMatcher getPathMatcher(String syntaxAndPattern) {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public Path getPath(String first, String... more) {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public Iterable<FileStore> getFileStores() {
-                    throw new UnsupportedOperationException("dummy");
-                }
-
-                @Override
-                public void close() throws IOException {}
-            };
-        }
+    /**
+     * Prepare to write to a zip file, if one has been specified. The
+     * output directory is then set to the archive's staging directory.
+     * 
+     * @return the archive sink, or {@code null} if output is to a
+     * directory
+     * 
+     * @throws IOException if an existing archive could not be read, or
+     * the sink could not be created
+     */
+    private ZipSink openArchive() throws IOException {
+        if (outputZipFile == null) return null;
+        ZipSink archive = new ZipSink(outputZipFile);
+        outputDirectory = archive.getRoot();
+        return archive;
     }
 
     /**
@@ -1521,47 +1962,89 @@ public class Polydoclot implements Doclet {
      */
     @Override
     public boolean run(DocletEnvironment environment) {
-        try (FileSystem outfs = getFileSystem()) {
-            Configuration config =
+        final ImportCache importCache;
+        try {
+            importCache = importCacheDirectory == null ? null :
+                new ImportCache(importCacheDirectory);
+        } catch (IOException e) {
+            reporter.print(Kind.ERROR, format("import.cache.failure",
+                                              e.getMessage(),
+                                              importCacheDirectory));
+            return false;
+        }
+        final RunReport runReport =
+            reportFile == null ? null : new RunReport(reportFile);
+        final ZipSink archive;
+        try {
+            archive = openArchive();
+        } catch (IOException e) {
+            reporter.print(Kind.ERROR, format("zip-output.failure",
+                                              e.getMessage(), outputZipFile));
+            return false;
+        }
+        final Configuration config;
+        long start;
+        try (archive) {
+            start = System.nanoTime();
+            config =
                 new Configuration(environment, reporter, messageBundle,
                                   rawTitle, rawShortTitle, overviewFile,
-                                  imports, rawGroupTitles, outputDirectory,
+                                  imports, importTimeout * 1000, importCache,
+                                  importIndexFile,
+                                  rawGroupTitles, outputDirectory, archive,
                                   offlineDirectory, diagnosticsDirectory,
-                                  hypertextLinkSuffix, tidyProgram, styleSource,
+                                  hypertextLinkSuffix, tidyProgram,
+                                  tidyInternally, tidyWorkers, incremental,
+                                  writeIfChanged, gzipSiblings, runReport,
+                                  shardIndex, shardCount,
+                                  styleSource,
                                   style, dirToJar, jarToVersion, sliceSpecs,
                                   listUndocumented);
             if (!config.isOkay()) return false;
+            config.phase("configuration", null, start);
 
             /* Generate slice-independent files. */
+            start = System.nanoTime();
             new MetadataGenerator(config).run();
+            config.phase("meta-data", null, start);
 
             /* Generate each slice. */
-            for (SliceSpecification sliceSpec : config.sliceSpecs) {
-                Slice slice = new Slice(config, sliceSpec);
-                config.diagnostic("slice.start", slice.spec.suffix,
-                                  slice.spec.locale
-                                      .getDisplayLanguage(config.getLocale()),
-                                  slice.spec.charset);
-
-                /* Generate this slice. */
-                new NavigationGenerator(slice).run();
-                new ModuleGenerator(slice).run();
-                new PackageGenerator(slice).run();
-                new ClassGenerator(slice).run();
-
-                config.diagnostic("output.undocumented-elements",
-                                  slice.countUndocumentedElements());
-                config.diagnostic("output.deprecated-elements",
-                                  config.deprecatedElements.size());
-                new OverviewGenerator(slice).run();
+            for (SliceSpecification sliceSpec : config.sliceSpecs)
+                generateSlice(config, sliceSpec);
+
+            start = System.nanoTime();
+            config.awaitTidying();
+            config.phase("tidying", null, start);
+            start = System.nanoTime();
+            if (config.executor.getPendingCount() > 0)
+                System.err.println(format("job.wait"));
+            while (!config.executor.awaitIdle(10000))
+                System.err.println(format("job.progress",
+                                          config.executor.getPendingCount(),
+                                          config.executor.getActiveCount(),
+                                          config.executor.getQueueDepth()));
+            config.executor.shutdown();
+            config.phase("jobs", null, start);
+            config.diagnostic("job.stats",
+                              config.executor.getSubmittedCount(),
+                              config.executor.getPeakPendingCount());
+            config.reportCacheStatistics();
+            if (config.pageManifest != null) {
+                config.diagnostic("output.manifest.stats",
+                                  config.pageManifest.getGeneratedCount(),
+                                  config.pageManifest.getSkippedCount());
+                try {
+                    config.pageManifest.write();
+                } catch (IOException ex) {
+                    config.report(Kind.ERROR, "output.manifest.failure.write",
+                                  ex.getMessage(), config.outputDirectory
+                                      .resolve(PageManifest.MANIFEST_NAME));
+                }
             }
+            config.reportOutputStatistics();
 
-            config.executor.shutdown();
-            do {
-                System.err.println(format("job.wait"));
-                config.executor.awaitTermination(10, TimeUnit.SECONDS);
-            } while (!config.executor.isTerminated());
-            return true;
+            /* Time the completion of the archive as it is closed. */
+            start = System.nanoTime();
         } catch (IOException e) {
             reporter.print(Kind.ERROR, format("zip-output.failure",
                                               e.getMessage(), outputZipFile));
@@ -1570,6 +2053,54 @@ public class Polydoclot implements Doclet {
             reporter.print(Kind.ERROR, format("job.failure"));
             return false;
         }
+        if (archive != null) {
+            config.phase("archive", null, start);
+            config.diagnostic("zip-output.stats", archive.getEntryCount(),
+                              archive.getSharedCount(), outputZipFile);
+        }
+        config.writeRunReport();
+        return true;
+    }
+
+    /**
+     * Generate all pages of a slice.
+     * 
+     * @param config the slice-independent configuration
+     * 
+     * @param sliceSpec the slice parameters
+     */
+    private static void generateSlice(Configuration config,
+                                      SliceSpecification sliceSpec) {
+        final long sliceStart = System.nanoTime();
+        Slice slice = new Slice(config, sliceSpec);
+        final String suffix = slice.spec.suffix;
+        config.diagnostic("slice.start", suffix,
+                          slice.spec.locale
+                              .getDisplayLanguage(config.getLocale()),
+                          slice.spec.charset);
+
+        /* Generate this slice. */
+        long start = System.nanoTime();
+        new NavigationGenerator(slice).run();
+        config.phase("navigation", suffix, start);
+        start = System.nanoTime();
+        new ModuleGenerator(slice).run();
+        config.phase("modules", suffix, start);
+        start = System.nanoTime();
+        new PackageGenerator(slice).run();
+        config.phase("packages", suffix, start);
+        start = System.nanoTime();
+        new ClassGenerator(slice).run();
+        config.phase("classes", suffix, start);
+
+        config.diagnostic("output.undocumented-elements",
+                          slice.countUndocumentedElements());
+        config.diagnostic("output.deprecated-elements",
+                          config.deprecatedElements.size());
+        start = System.nanoTime();
+        new OverviewGenerator(slice).run();
+        config.phase("overview", suffix, start);
+        config.phase("slice", suffix, sliceStart);
     }
 
     /**
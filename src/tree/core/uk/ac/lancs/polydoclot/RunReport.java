@@ -0,0 +1,439 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+package uk.ac.lancs.polydoclot;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records where a run spends its time, and writes the results as a
+ * JSON document. The document is an object with the following members:
+ * 
+ * <dl>
+ * 
+ * <dt><samp>version</samp></dt>
+ * 
+ * <dd>the doclet's revision
+ * 
+ * <dt><samp>started</samp></dt>
+ * 
+ * <dd>the time the run started, in ISO 8601 format
+ * 
+ * <dt><samp>elapsed</samp></dt>
+ * 
+ * <dd>the duration of the run up to writing the report
+ * 
+ * <dt><samp>counters</samp></dt>
+ * 
+ * <dd>an object mapping counter names to integers, including pages
+ * generated, files and bytes written, and link resolutions
+ * 
+ * <dt><samp>phases</samp></dt>
+ * 
+ * <dd>an array of objects, each with a <samp>name</samp>, an optional
+ * <samp>subject</samp> (such as a slice suffix or import location), a
+ * <samp>start</samp> relative to the start of the run, and a
+ * <samp>duration</samp>, in the order in which phases completed
+ * 
+ * <dt><samp>pages</samp></dt>
+ * 
+ * <dd>an array of objects, each with the <samp>path</samp> of the page
+ * relative to the output directory, the time spent rendering it
+ * (<samp>render</samp>), tidying it (<samp>tidy</samp>) and writing it
+ * (<samp>write</samp>), and the number of <samp>bytes</samp> written,
+ * sorted by path
+ * 
+ * </dl>
+ * 
+ * <p>
+ * All times are in milliseconds. Rendering of a page is timed from
+ * opening it to closing it, so it includes the time spent writing it if
+ * it is not tidied. When tidied by a pool of HTMLTidy processes, each
+ * page in a batch is attributed an equal share of the batch's time.
+ * Phases of concurrent slices overlap.
+ * 
+ * @author simpsons
+ */
+final class RunReport {
+    private final Path file;
+
+    private final Instant started = Instant.now();
+
+    private final long origin = System.nanoTime();
+
+    private final Collection<Phase> phases = new ConcurrentLinkedQueue<>();
+
+    private final Map<Path, Page> pages = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    private final LongAdder files = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * Prepare to record a run, starting now.
+     * 
+     * @param file the file to write the report to
+     */
+    RunReport(Path file) {
+        this.file = file;
+    }
+
+    private static final class Phase {
+        final String name;
+
+        final String subject;
+
+        final long start, end;
+
+        Phase(String name, String subject, long start, long end) {
+            this.name = name;
+            this.subject = subject;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Record the completion of a phase.
+     * 
+     * @param name the name of the phase
+     * 
+     * @param subject what the phase applies to, such as a slice suffix;
+     * or {@code null} if the phase applies to the whole run
+     * 
+     * @param start the time the phase started, as returned by
+     * {@link System#nanoTime()}
+     */
+    void phase(String name, String subject, long start) {
+        phases.add(new Phase(name, subject, start, System.nanoTime()));
+    }
+
+    /**
+     * Records the timing of a single page.
+     */
+    final class Page {
+        final Path file;
+
+        final long start = System.nanoTime();
+
+        volatile long rendered;
+
+        final LongAdder tidying = new LongAdder();
+
+        final LongAdder writing = new LongAdder();
+
+        final LongAdder written = new LongAdder();
+
+        Page(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * Mark the page as completely rendered.
+         */
+        void rendered() {
+            if (rendered == 0) rendered = System.nanoTime();
+        }
+
+        /**
+         * Attribute time spent tidying to this page.
+         * 
+         * @param nanos the time spent in nanoseconds
+         */
+        void tidied(long nanos) {
+            tidying.add(nanos);
+        }
+
+        /**
+         * Attribute time to this page from its completed rendering
+         * until now, during which it was being tidied by an external
+         * process.
+         */
+        void tidiedUntilNow() {
+            long from = rendered;
+            if (from != 0) tidying.add(System.nanoTime() - from);
+        }
+    }
+
+    /**
+     * Start timing a page.
+     * 
+     * @param page the file to be generated
+     * 
+     * @return the page's record
+     */
+    Page startPage(Path page) {
+        Page result = new Page(page);
+        pages.put(page, result);
+        return result;
+    }
+
+    /**
+     * Attribute time spent tidying to a page.
+     * 
+     * @param page the generated file
+     * 
+     * @param nanos the time spent in nanoseconds
+     */
+    void tidied(Path page, long nanos) {
+        Page record = pages.get(page);
+        if (record != null) record.tidied(nanos);
+    }
+
+    /**
+     * Count and time the bytes written to an output file. If the file
+     * is a page being timed, the time and bytes are also attributed to
+     * it.
+     * 
+     * @param file the output file
+     * 
+     * @param out the stream writing to the file
+     * 
+     * @return a stream writing to the file, and recording the writes
+     */
+    OutputStream meter(Path file, OutputStream out) {
+        files.increment();
+        final Page page = pages.get(file);
+        return new FilterOutputStream(out) {
+            private void account(long begin, int len) {
+                long elapsed = System.nanoTime() - begin;
+                bytes.add(len);
+                if (page != null) {
+                    page.writing.add(elapsed);
+                    page.written.add(len);
+                }
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                long begin = System.nanoTime();
+                out.write(b);
+                account(begin, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                throws IOException {
+                long begin = System.nanoTime();
+                out.write(b, off, len);
+                account(begin, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long begin = System.nanoTime();
+                out.flush();
+                account(begin, 0);
+            }
+
+            @Override
+            public void close() throws IOException {
+                long begin = System.nanoTime();
+                out.close();
+                account(begin, 0);
+            }
+        };
+    }
+
+    /**
+     * Get the number of pages timed.
+     * 
+     * @return the number of pages timed
+     */
+    int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Get the number of output files opened.
+     * 
+     * @return the number of output files
+     */
+    long getFileCount() {
+        return files.sum();
+    }
+
+    /**
+     * Get the number of bytes written to output files. These are
+     * counted before compression into an archive.
+     * 
+     * @return the number of bytes written
+     */
+    long getByteCount() {
+        return bytes.sum();
+    }
+
+    /**
+     * Set a counter.
+     * 
+     * @param name the counter's name
+     * 
+     * @param value the counter's value
+     */
+    synchronized void count(String name, long value) {
+        counters.put(name, value);
+    }
+
+    /**
+     * Get the file the report is to be written to.
+     * 
+     * @return the report file
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Write the report.
+     * 
+     * @param outputDirectory the directory that page paths are reported
+     * relative to
+     * 
+     * @throws IOException if the report could not be written
+     */
+    synchronized void write(Path outputDirectory) throws IOException {
+        long now = System.nanoTime();
+        List<Page> sorted = new ArrayList<>(pages.values());
+        sorted.sort(Comparator.comparing(p -> p.file));
+
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(Files
+            .newOutputStream(file), StandardCharsets.UTF_8))) {
+            out.printf("{\n  \"version\": %s,\n",
+                       quote(Configuration.buildProperties
+                           .getProperty("revision", "")));
+            out.printf("  \"started\": %s,\n", quote(started.toString()));
+            out.printf("  \"elapsed\": %s,\n", millis(now - origin));
+
+            out.print("  \"counters\": {");
+            String sep = "\n";
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                out.printf("%s    %s: %d", sep, quote(entry.getKey()),
+                           entry.getValue());
+                sep = ",\n";
+            }
+            out.print("\n  },\n");
+
+            out.print("  \"phases\": [");
+            sep = "\n";
+            for (Phase phase : phases) {
+                out.printf("%s    { \"name\": %s, ", sep, quote(phase.name));
+                if (phase.subject != null)
+                    out.printf("\"subject\": %s, ", quote(phase.subject));
+                out.printf("\"start\": %s, \"duration\": %s }",
+                           millis(phase.start - origin),
+                           millis(phase.end - phase.start));
+                sep = ",\n";
+            }
+            out.print("\n  ],\n");
+
+            out.print("  \"pages\": [");
+            sep = "\n";
+            for (Page page : sorted) {
+                String path = outputDirectory.relativize(page.file)
+                    .toString()
+                    .replace(page.file.getFileSystem().getSeparator(), "/");
+                long render = (page.rendered == 0 ? now : page.rendered)
+                    - page.start;
+                out.printf("%s    { \"path\": %s, \"render\": %s,"
+                    + " \"tidy\": %s, \"write\": %s, \"bytes\": %d }", sep,
+                           quote(path), millis(render),
+                           millis(page.tidying.sum()),
+                           millis(page.writing.sum()), page.written.sum());
+                sep = ",\n";
+            }
+            out.print("\n  ]\n}\n");
+            if (out.checkError())
+                throw new IOException("error writing " + file);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String text) {
+        StringBuilder result = new StringBuilder(text.length() + 2);
+        result.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                result.append('\\').append(c);
+                break;
+
+            case '\n':
+                result.append("\\n");
+                break;
+
+            case '\r':
+                result.append("\\r");
+                break;
+
+            case '\t':
+                result.append("\\t");
+                break;
+
+            default:
+                if (c < 0x20)
+                    result.append(String.format("\\u%04x", (int) c));
+                else
+                    result.append(c);
+                break;
+            }
+        }
+        return result.append('"').toString();
+    }
+}
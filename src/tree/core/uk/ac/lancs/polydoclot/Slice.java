@@ -61,7 +61,6 @@ import com.sun.source.doctree.UnknownInlineTagTree;
 import com.sun.source.doctree.ValueTree;
 import com.sun.source.doctree.VersionTree;
 import com.sun.source.util.SimpleDocTreeVisitor;
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -70,6 +69,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.ProcessBuilder.Redirect;
 import java.lang.StackWalker.StackFrame;
@@ -93,7 +93,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.ResourceBundle;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
@@ -122,13 +122,14 @@ import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.type.TypeVariable;
 import javax.lang.model.type.WildcardType;
-import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.SimpleElementVisitor9;
 import javax.lang.model.util.SimpleTypeVisitor9;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.FileObject;
+import uk.ac.lancs.polydoclot.util.CharacterReferenceWriter;
 import uk.ac.lancs.polydoclot.util.Escaper;
 import uk.ac.lancs.polydoclot.util.HypertextEscaper;
+import uk.ac.lancs.polydoclot.util.HypertextTidier;
 import uk.ac.lancs.polydoclot.util.MacroFormatter;
 import uk.ac.lancs.polydoclot.util.Utils;
 
@@ -188,7 +189,8 @@ public final class Slice {
      * Get a localized macro format consisting of Javadoc tags and HTML,
      * apply properties to it, then interpret as Javadoc. The macro
      * format uses square brackets as delimiters instead of braces,
-     * which would clash with Javadoc tags.
+     * which would clash with Javadoc tags. Each format is compiled only
+     * once per slice, and, if it contains no macros, parsed only once.
      * 
      * @param key the key identifying the format
      * 
@@ -198,10 +200,47 @@ public final class Slice {
      */
     public List<? extends DocTree> macroFormatDoc(String key,
                                                   Properties props) {
-        String text = contentBundle.getString(key);
-        MacroFormatter fmt =
-            MacroFormatter.syntax().openOn('[').closeOn(']').create(text);
-        String raw = "<body>" + fmt.format(props) + "</body>";
+        MacroFormatter fmt = docFormatters.computeIfAbsent(key, k -> {
+            String text = contentBundle.getString(k);
+            return MacroFormatter.syntax().openOn('[').closeOn(']')
+                .create(text);
+        });
+        if (fmt.isConstant())
+            return constantDocContent
+                .computeIfAbsent(key, k -> parseContent(fmt.format(props)));
+        return parseContent(fmt.format(props));
+    }
+
+    /**
+     * Holds formatters compiled from localized macro formats, indexed
+     * by key
+     */
+    private final Map<String, MacroFormatter> docFormatters =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Holds parsed content of localized macro formats containing no
+     * macros, indexed by key
+     */
+    private final Map<String, List<? extends DocTree>> constantDocContent =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Holds parsed localized content, indexed by key
+     */
+    private final Map<String, List<? extends DocTree>> treeContent =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Interpret HTML as the body of a Javadoc comment.
+     * 
+     * @param text the HTML content
+     * 
+     * @return a sequence of documentation trees representing the
+     * content
+     */
+    private List<? extends DocTree> parseContent(String text) {
+        String raw = "<body>" + text + "</body>";
         FileObject file = new FileObject() {
             @Override
             public URI toUri() {
@@ -540,20 +579,13 @@ public final class Slice {
                     if (methCtxt != null) {
                         /* If we're in a method, scan methods in
                          * supertypes that we override. */
-                        for (TypeElement cand : candTypes) {
-                            /* Find all methods of this class that we
-                             * override. */
-                            for (ExecutableElement membCand : ElementFilter
-                                .methodsIn(cand.getEnclosedElements())) {
-                                if (!config.elements
-                                    .overrides(methCtxt, membCand, typeCtxt))
-                                    continue;
-                                @SuppressWarnings("unused")
-                                SourceContext newCtxt = SourceContext
-                                    .forElement(membCand).inSummaryTag();
-                                if (writeSummary(out, outCtxt, membCand))
-                                    return null;
-                            }
+                        for (ExecutableElement membCand : config
+                            .getOverriddenMethods(methCtxt)) {
+                            @SuppressWarnings("unused")
+                            SourceContext newCtxt = SourceContext
+                                .forElement(membCand).inSummaryTag();
+                            if (writeSummary(out, outCtxt, membCand))
+                                return null;
                         }
                     } else {
                         /* Scan supertypes. */
@@ -616,26 +648,19 @@ public final class Slice {
                 if (methCtxt != null) {
                     /* We're in the main body of a method. Scan
                      * supertypes for overridden methods. */
-                    for (TypeElement cand : candTypes) {
-                        /* Find all methods of this class that we
-                         * override. */
-                        for (ExecutableElement membCand : ElementFilter
-                            .methodsIn(cand.getEnclosedElements())) {
-                            if (!config.elements
-                                .overrides(methCtxt, membCand, typeCtxt))
-                                continue;
-                            DocCommentTree dct =
-                                config.docTrees.getDocCommentTree(membCand);
-                            if (dct == null) continue;
-                            List<? extends DocTree> docs =
-                                inCtxt.firstSentence() ?
-                                    dct.getFirstSentence() : dct.getFullBody();
-                            if (docs == null) continue;
-                            if (docs.isEmpty()) continue;
-                            SourceContext newCtxt =
-                                SourceContext.forElement(membCand);
-                            toHypertext(out, newCtxt, outCtxt, docs);
-                        }
+                    for (ExecutableElement membCand : config
+                        .getOverriddenMethods(methCtxt)) {
+                        DocCommentTree dct =
+                            config.docTrees.getDocCommentTree(membCand);
+                        if (dct == null) continue;
+                        List<? extends DocTree> docs =
+                            inCtxt.firstSentence() ?
+                                dct.getFirstSentence() : dct.getFullBody();
+                        if (docs == null) continue;
+                        if (docs.isEmpty()) continue;
+                        SourceContext newCtxt =
+                            SourceContext.forElement(membCand);
+                        toHypertext(out, newCtxt, outCtxt, docs);
                     }
                     return null;
                 }
@@ -1807,35 +1832,23 @@ public final class Slice {
         /* Only return tags in methods can use {@inheritDoc}. */
         if (!ensureInstanceMethod(execElem, silent)) return false;
 
-        // final Collection<TypeElement> candTypes = new
-        // LinkedHashSet<>();
-        final TypeElement execType =
-            (TypeElement) execElem.getEnclosingElement();
-        final Collection<TypeElement> candTypes =
-            config.getInheritanceOrder(execType);
-        // config.addSupertypes(candTypes, execType);
-
-        for (TypeElement cand : candTypes) {
-            /* Find all methods of this class that we override. */
-            for (ExecutableElement membCand : ElementFilter
-                .methodsIn(cand.getEnclosedElements())) {
-                if (!config.elements.overrides(execElem, membCand, execType))
-                    continue;
-                DocCommentTree dct =
-                    config.docTrees.getDocCommentTree(membCand);
-                if (dct == null) continue;
-                ParamTree from = config.getParameterDoc(membCand, pos);
-                /* ParamTree from = DocUtils .findParameter(dct,
-                 * node.getName().getName(), node.isTypeParameter()); */
-                if (from == null) continue;
-                List<? extends DocTree> docs = from.getDescription();
-                if (docs == null) continue;
-                if (docs.isEmpty()) continue;
-                SourceContext newCtxt =
-                    SourceContext.forElement(membCand).inParamTag(pos);
-                toHypertext(out, newCtxt, outCtxt, docs);
-                return true;
-            }
+        /* Try each method that we override. */
+        for (ExecutableElement membCand : config
+            .getOverriddenMethods(execElem)) {
+            DocCommentTree dct =
+                config.docTrees.getDocCommentTree(membCand);
+            if (dct == null) continue;
+            ParamTree from = config.getParameterDoc(membCand, pos);
+            /* ParamTree from = DocUtils .findParameter(dct,
+             * node.getName().getName(), node.isTypeParameter()); */
+            if (from == null) continue;
+            List<? extends DocTree> docs = from.getDescription();
+            if (docs == null) continue;
+            if (docs.isEmpty()) continue;
+            SourceContext newCtxt =
+                SourceContext.forElement(membCand).inParamTag(pos);
+            toHypertext(out, newCtxt, outCtxt, docs);
+            return true;
         }
         return false;
     }
@@ -1870,35 +1883,23 @@ public final class Slice {
          * {@inheritDoc}. */
         if (!ensureInstanceMethod(execElem, silent)) return false;
 
-        // final Collection<TypeElement> candTypes = new
-        // LinkedHashSet<>();
-        final TypeElement execType =
-            (TypeElement) execElem.getEnclosingElement();
-        final Collection<TypeElement> candTypes =
-            config.getInheritanceOrder(execType);
-        // config.addSupertypes(candTypes, execType);
-
-        for (TypeElement cand : candTypes) {
-            /* Find all methods of this class that we override. */
-            for (ExecutableElement membCand : ElementFilter
-                .methodsIn(cand.getEnclosedElements())) {
-                if (!config.elements.overrides(execElem, membCand, execType))
-                    continue;
-                DocCommentTree dct =
-                    config.docTrees.getDocCommentTree(membCand);
-                if (dct == null) continue;
-                ThrowsTree from = config.getThrowsDoc(membCand, thrown);
-                /* ThrowsTree from = config.findThrows(execElem, dct,
-                 * thrownType); */
-                if (from == null) continue;
-                List<? extends DocTree> docs = from.getDescription();
-                if (docs == null) continue;
-                if (docs.isEmpty()) continue;
-                SourceContext newCtxt =
-                    SourceContext.forElement(membCand).inThrowsTag(thrown);
-                toHypertext(out, newCtxt, outCtxt, docs);
-                return true;
-            }
+        /* Try each method that we override. */
+        for (ExecutableElement membCand : config
+            .getOverriddenMethods(execElem)) {
+            DocCommentTree dct =
+                config.docTrees.getDocCommentTree(membCand);
+            if (dct == null) continue;
+            ThrowsTree from = config.getThrowsDoc(membCand, thrown);
+            /* ThrowsTree from = config.findThrows(execElem, dct,
+             * thrownType); */
+            if (from == null) continue;
+            List<? extends DocTree> docs = from.getDescription();
+            if (docs == null) continue;
+            if (docs.isEmpty()) continue;
+            SourceContext newCtxt =
+                SourceContext.forElement(membCand).inThrowsTag(thrown);
+            toHypertext(out, newCtxt, outCtxt, docs);
+            return true;
         }
         return false;
     }
@@ -1928,49 +1929,56 @@ public final class Slice {
         /* Only return tags in methods can use {@inheritDoc}. */
         if (!ensureInstanceMethod(execElem, silent)) return false;
 
-        // final Collection<TypeElement> candTypes = new
-        // LinkedHashSet<>();
-        final TypeElement execType =
-            (TypeElement) execElem.getEnclosingElement();
-        final Collection<TypeElement> candTypes =
-            config.getInheritanceOrder(execType);
-        // config.addSupertypes(candTypes, execType);
-
-        for (TypeElement cand : candTypes) {
-            /* Find all methods of this class that we override. */
-            for (ExecutableElement membCand : ElementFilter
-                .methodsIn(cand.getEnclosedElements())) {
-                if (!config.elements.overrides(execElem, membCand, execType))
-                    continue;
-                DocCommentTree dct =
-                    config.docTrees.getDocCommentTree(membCand);
-                if (dct == null) continue;
-                ReturnTree from = DocUtils.getReturnTag(dct);
-                if (from == null) continue;
-                List<? extends DocTree> docs = from.getDescription();
-                if (docs == null) continue;
-                if (docs.isEmpty()) continue;
-                SourceContext newCtxt =
-                    SourceContext.forElement(membCand).inReturnTag();
-                toHypertext(out, newCtxt, outCtxt, docs);
-                return true;
-            }
+        /* Try each method that we override. */
+        for (ExecutableElement membCand : config
+            .getOverriddenMethods(execElem)) {
+            DocCommentTree dct =
+                config.docTrees.getDocCommentTree(membCand);
+            if (dct == null) continue;
+            ReturnTree from = DocUtils.getReturnTag(dct);
+            if (from == null) continue;
+            List<? extends DocTree> docs = from.getDescription();
+            if (docs == null) continue;
+            if (docs.isEmpty()) continue;
+            SourceContext newCtxt =
+                SourceContext.forElement(membCand).inReturnTag();
+            toHypertext(out, newCtxt, outCtxt, docs);
+            return true;
         }
         return false;
     }
 
-    private static OutputStream tee(OutputStream out, OutputStream copy) {
-        return new FilterOutputStream(out) {
+    private static void convertCharset(InputStream bytesIn,
+                                       Charset charsetIn,
+                                       OutputStream bytesOut,
+                                       Charset charsetOut) {
+        try (Reader in = new InputStreamReader(bytesIn, charsetIn);
+             Writer out = new OutputStreamWriter(bytesOut, charsetOut)) {
+            char[] buf = new char[4096];
+            int got;
+            while ((got = in.read(buf)) >= 0) {
+                out.write(buf, 0, got);
+            }
+        } catch (IOException e) {
+            /* TODO? */
+            throw new UnsupportedOperationException("unimplemented", e);
+        }
+    }
+
+    private static Writer tee(Writer out, Writer copy) {
+        return new Writer() {
             @Override
-            public void write(int b) throws IOException {
-                out.write(b);
-                copy.write(b);
+            public void write(char[] cbuf, int off, int len)
+                throws IOException {
+                out.write(cbuf, off, len);
+                copy.write(cbuf, off, len);
             }
 
             @Override
-            public void close() throws IOException {
-                out.close();
-                copy.close();
+            public void write(String str, int off, int len)
+                throws IOException {
+                out.write(str, off, len);
+                copy.write(str, off, len);
             }
 
             @Override
@@ -1980,42 +1988,202 @@ public final class Slice {
             }
 
             @Override
-            public void write(byte[] b) throws IOException {
-                write(b, 0, b.length);
+            public void close() throws IOException {
+                try {
+                    out.close();
+                } finally {
+                    copy.close();
+                }
             }
+        };
+    }
+
+    /**
+     * Open an HTML file for writing directly, without tidying. A single
+     * encoder converts to the slice's character encoding, so no process
+     * or thread is required.
+     * 
+     * @param file the name of the file
+     * 
+     * @param logDir the directory for diagnostics, or {@code null} if
+     * not required
+     * 
+     * @param leafname the name of the file within the diagnostics
+     * directory, without the HTML suffix
+     * 
+     * @return a character stream writing to the file
+     * 
+     * @throws IOException if there was an I/O error
+     */
+    private PrintWriter openDirectFile(Path file, Path logDir,
+                                       String leafname)
+        throws IOException {
+        Writer charOut =
+            new CharacterReferenceWriter(config.openServedFile(file),
+                                         spec.charset);
+        if (logDir != null) {
+            Files.createDirectories(logDir);
+            Path rawFile = logDir
+                .resolve(leafname + config.hypertextFileSuffix + spec.suffix);
+            charOut =
+                tee(charOut,
+                    new OutputStreamWriter(Files.newOutputStream(rawFile),
+                                           StandardCharsets.UTF_8));
+        }
+        PrintWriter out = new PrintWriter(charOut);
+        out.printf("<!DOCTYPE html PUBLIC"
+            + " \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
+        return out;
+    }
+
+    /**
+     * Open an HTML file for writing, to be spooled and then tidied by
+     * the configuration's pool of HTMLTidy processes when closed.
+     * 
+     * @param file the name of the file
+     * 
+     * @param logDir the directory for diagnostics, or {@code null} if
+     * not required
+     * 
+     * @param leafname the name of the file within the diagnostics
+     * directory, without the HTML suffix
+     * 
+     * @param tidyLog the file to receive tidying diagnostics, or
+     * {@code null} if not required
+     * 
+     * @return a character stream writing to the file
+     * 
+     * @throws IOException if there was an I/O error
+     */
+    private PrintWriter openPooledFile(Path file, Path logDir,
+                                       String leafname, Path tidyLog)
+        throws IOException {
+        Path spool = config.tidyPool.createSpoolFile();
+        Writer charOut =
+            new OutputStreamWriter(Files.newOutputStream(spool),
+                                   StandardCharsets.UTF_8);
+        final String displayName;
+        if (logDir != null) {
+            Files.createDirectories(logDir);
+            Path rawFile = logDir
+                .resolve(leafname + config.hypertextFileSuffix + spec.suffix);
+            charOut =
+                tee(charOut,
+                    new OutputStreamWriter(Files.newOutputStream(rawFile),
+                                           StandardCharsets.UTF_8));
+            displayName = rawFile.toString();
+        } else {
+            displayName = file.toString();
+        }
+        PrintWriter out = new PrintWriter(charOut) {
+            private boolean closed = false;
 
             @Override
-            public void write(byte[] b, int off, int len) throws IOException {
-                out.write(b, off, len);
-                copy.write(b, off, len);
+            public void close() {
+                super.close();
+                if (closed) return;
+                closed = true;
+                config.tidyPool.submit(spool, file, spec.charset, tidyLog,
+                                       displayName);
             }
         };
+        out.printf("<!DOCTYPE html PUBLIC"
+            + " \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
+        return out;
     }
 
-    private void convertCharset(Executor executor, InputStream bytesIn,
-                                Charset charsetIn, OutputStream bytesOut,
-                                Charset charsetOut) {
-        executor.execute(() -> {
-            try (Reader in = new InputStreamReader(bytesIn, charsetIn);
-                 Writer out = new OutputStreamWriter(bytesOut, charsetOut)) {
-                char[] buf = new char[4096];
-                int got;
-                while ((got = in.read(buf)) >= 0) {
-                    out.write(buf, 0, got);
+    /**
+     * Open an HTML file for writing, to be tidied in-process by
+     * {@link HypertextTidier} when closed. Content is buffered until
+     * then, so no process or thread is required.
+     * 
+     * @param file the name of the file
+     * 
+     * @param logDir the directory for diagnostics, or {@code null} if
+     * not required
+     * 
+     * @param leafname the name of the file within the diagnostics
+     * directory, without the HTML suffix
+     * 
+     * @param tidyLog the file to receive tidying diagnostics, or
+     * {@code null} if not required
+     * 
+     * @return a character stream writing to the file
+     * 
+     * @throws IOException if there was an I/O error
+     */
+    private PrintWriter openInternallyTidiedFile(Path file, Path logDir,
+                                                 String leafname,
+                                                 Path tidyLog)
+        throws IOException {
+        if (logDir != null) Files.createDirectories(logDir);
+        StringWriter buffer = new StringWriter(16 * 1024);
+        PrintWriter out = new PrintWriter(buffer) {
+            private boolean closed = false;
+
+            @Override
+            public void close() {
+                super.close();
+                if (closed) return;
+                closed = true;
+                CharSequence raw = buffer.getBuffer();
+                try {
+                    if (logDir != null) {
+                        Path rawFile = logDir.resolve(leafname
+                            + config.hypertextFileSuffix + spec.suffix);
+                        try (Writer rawOut =
+                            new OutputStreamWriter(Files
+                                .newOutputStream(rawFile),
+                                                   StandardCharsets.UTF_8)) {
+                            rawOut.append(raw);
+                        }
+                    }
+
+                    StringBuilder log = tidyLog == null ? null :
+                        new StringBuilder();
+                    final int rc;
+                    long start = System.nanoTime();
+                    try (Writer fileOut =
+                        new CharacterReferenceWriter(config
+                            .openServedFile(file), spec.charset)) {
+                        rc = HypertextTidier.tidy(raw, fileOut, log);
+                    }
+                    if (config.runReport != null)
+                        config.runReport.tidied(file,
+                                                System.nanoTime() - start);
+                    if (tidyLog != null) {
+                        try (Writer logOut =
+                            new OutputStreamWriter(Files
+                                .newOutputStream(tidyLog),
+                                                   StandardCharsets.UTF_8)) {
+                            logOut.append(log);
+                        }
+                    }
+                    config.reportTidyStatus(rc, tidyLog);
+                } catch (IOException ex) {
+                    config.report(Kind.ERROR,
+                                  "tidy.internal.failure.write",
+                                  ex.getMessage(),
+                                  file);
                 }
-            } catch (IOException e) {
-                /* TODO? */
-                throw new UnsupportedOperationException("unimplemented", e);
             }
-        });
+        };
+        out.printf("<!DOCTYPE html PUBLIC"
+            + " \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
+        return out;
     }
 
     /**
      * Open an HTML file for writing. The provided stream writes into a
-     * pipeline of conversions, including a potential HTMLTidy process,
-     * and a final conversion from UTF-8 to the slice's character
-     * encoding. Additionally, an HTML4.01 doctype is pre-written to the
-     * stream.
+     * pipeline of conversions, including an HTMLTidy process, and a
+     * final conversion from UTF-8 to the slice's character encoding. If
+     * tidying is disabled or performed in-process, the stream encodes
+     * directly to the file. Additionally, an HTML4.01 doctype is
+     * pre-written to the stream.
+     * 
+     * <p>
+     * If a run report is required, the page is timed from being opened
+     * until closed.
      * 
      * @param file the name of the file
      * 
@@ -2024,6 +2192,20 @@ public final class Slice {
      * @throws IOException if there was an I/O error
      */
     public PrintWriter openHypertextFile(Path file) throws IOException {
+        if (config.runReport == null) return openHypertextFile(file, null);
+        RunReport.Page page = config.runReport.startPage(file);
+        PrintWriter out = openHypertextFile(file, page);
+        return new PrintWriter(out) {
+            @Override
+            public void close() {
+                page.rendered();
+                super.close();
+            }
+        };
+    }
+
+    private PrintWriter openHypertextFile(Path file, RunReport.Page page)
+        throws IOException {
         final Path logDir;
         final String leafname;
         if (config.diagnosticsDirectory != null) {
@@ -2043,76 +2225,55 @@ public final class Slice {
             leafname = null;
         }
 
-        /* Describe a pipeline to work on the output. */
-        List<ProcessBuilder> steps = new ArrayList<>();
         Path tidyLog = logDir == null ? null :
             logDir.resolve(leafname + spec.suffix + ".tidy.log");
-        if (config.tidyProgram == null) {
-            /* Add an identity transformation so that the pipeline isn't
-             * empty. */
-            steps.add(new ProcessBuilder("cat"));
-        } else {
-            /* Insert an HTMLTidy process. */
-            List<String> tidyArgs =
-                new ArrayList<>(Arrays.asList(config.tidyProgram,
-                                              "-i",
-                                              "-q",
-                                              "-utf8",
-                                              "--wrap",
-                                              "0"));
-            if (logDir != null) {
-                tidyArgs.add("-f");
-                tidyArgs.add(tidyLog.toString());
-                Files.createDirectories(logDir);
-            }
-            steps.add(new ProcessBuilder(tidyArgs));
+        if (config.tidyInternally)
+            return openInternallyTidiedFile(file, logDir, leafname, tidyLog);
+        if (config.tidyProgram == null)
+            return openDirectFile(file, logDir, leafname);
+        if (config.tidyPool != null)
+            return openPooledFile(file, logDir, leafname, tidyLog);
+
+        /* Describe a pipeline to work on the output, consisting of an
+         * HTMLTidy process. */
+        List<ProcessBuilder> steps = new ArrayList<>();
+        List<String> tidyArgs =
+            new ArrayList<>(Arrays.asList(config.tidyProgram,
+                                          "-i",
+                                          "-q",
+                                          "-utf8",
+                                          "--wrap",
+                                          "0"));
+        if (logDir != null) {
+            tidyArgs.add("-f");
+            tidyArgs.add(tidyLog.toString());
+            Files.createDirectories(logDir);
         }
+        steps.add(new ProcessBuilder(tidyArgs));
 
         /* Create the pipeline. */
         steps.forEach(pb -> pb.redirectError(Redirect.INHERIT));
         List<Process> pipeline = ProcessBuilder.startPipeline(steps);
 
-        /* Ensure we wait for the last process to exit. */
-        if (config.tidyProgram != null) {
-            Process p = pipeline.get(pipeline.size() - 1);
-            config.executor.execute(() -> {
-                try {
-                    int rc = p.waitFor();
-                    switch (rc) {
-                    case 0:
-                        break;
-
-                    case 1:
-                        if (tidyLog != null)
-                            config.report(Kind.WARNING,
-                                          "tidy.warning.see",
-                                          tidyLog);
-                        else
-                            config.report(Kind.WARNING, "tidy.warning");
-                        break;
-
-                    default:
-                        if (tidyLog != null)
-                            config.report(Kind.ERROR,
-                                          "tidy.failure.see",
-                                          tidyLog);
-                        else
-                            config.report(Kind.ERROR, "tidy.failure");
-                        break;
-                    }
-                } catch (InterruptedException e) {
-                    config.report(Kind.ERROR, "tidy.interrupt", file);
-                }
-            });
-        }
-
-        /* Create a thread to convert the end of the pipeline to the
-         * specified charset, and write out to the file. */
-        convertCharset(config.executor,
-                       pipeline.get(pipeline.size() - 1).getInputStream(),
-                       StandardCharsets.UTF_8,
-                       Files.newOutputStream(file),
-                       spec.charset);
+        /* Convert the end of the pipeline to the specified charset,
+         * write out to the file, and then wait for the last process to
+         * exit. These are done in one job, so that the executor is
+         * never filled with jobs waiting for conversions that can't
+         * start. */
+        Process p = pipeline.get(pipeline.size() - 1);
+        InputStream tidied = p.getInputStream();
+        OutputStream fileOut = config.openServedFile(file);
+        config.executor.execute(() -> {
+            convertCharset(tidied, StandardCharsets.UTF_8, fileOut,
+                           spec.charset);
+            try {
+                int rc = p.waitFor();
+                if (page != null) page.tidiedUntilNow();
+                config.reportTidyStatus(rc, tidyLog);
+            } catch (InterruptedException e) {
+                config.report(Kind.ERROR, "tidy.interrupt", file);
+            }
+        });
 
         /* Prepare to write to the pipeline. */
         OutputStream byteOut = pipeline.get(0).getOutputStream();
@@ -2120,7 +2281,7 @@ public final class Slice {
             Files.createDirectories(logDir);
             Path rawFile = logDir
                 .resolve(leafname + config.hypertextFileSuffix + spec.suffix);
-            byteOut = tee(byteOut, Files.newOutputStream(rawFile));
+            byteOut = Utils.tee(byteOut, Files.newOutputStream(rawFile));
         }
         PrintWriter out =
             new PrintWriter(new OutputStreamWriter(byteOut,
@@ -2802,7 +2963,8 @@ public final class Slice {
     }
 
     /**
-     * Interpret localized content as a Javadoc comment.
+     * Interpret localized content as a Javadoc comment. The content is
+     * parsed only once per slice.
      * 
      * @param key the key identifying the content
      * 
@@ -2810,57 +2972,8 @@ public final class Slice {
      * content
      */
     public final List<? extends DocTree> getTreeContent(String key) {
-        String rawText = "<body>" + contentBundle.getString(key) + "</body>";
-        FileObject file = new FileObject() {
-            @Override
-            public URI toUri() {
-                throw new UnsupportedOperationException("unnecessary");
-            }
-
-            @Override
-            public Writer openWriter() throws IOException {
-                throw new UnsupportedOperationException("unnecessary");
-            }
-
-            @Override
-            public Reader openReader(boolean ignoreEncodingErrors)
-                throws IOException {
-                return new StringReader(rawText);
-            }
-
-            @Override
-            public OutputStream openOutputStream() throws IOException {
-                throw new UnsupportedOperationException("unnecessary");
-            }
-
-            @Override
-            public InputStream openInputStream() throws IOException {
-                throw new UnsupportedOperationException("unnecessary");
-            }
-
-            @Override
-            public String getName() {
-                return "content-" + key + ".html";
-            }
-
-            @Override
-            public long getLastModified() {
-                throw new UnsupportedOperationException("unnecessary");
-            }
-
-            @Override
-            public CharSequence getCharContent(boolean ignoreEncodingErrors)
-                throws IOException {
-                return rawText;
-            }
-
-            @Override
-            public boolean delete() {
-                throw new UnsupportedOperationException("unnecessary");
-            }
-        };
-        DocCommentTree tree = config.docTrees.getDocCommentTree(file);
-        return tree.getFullBody();
+        return treeContent
+            .computeIfAbsent(key, k -> parseContent(contentBundle.getString(k)));
     }
 
     /**
@@ -3073,20 +3186,21 @@ public final class Slice {
         if (execElem != null) {
             /* We are searching for overridden methods. Scan each
              * superclass for an overridden method. */
-            for (TypeElement candType : cands) {
-                assert candType != null;
-                for (ExecutableElement candMeth : ElementFilter
-                    .methodsIn(candType.getEnclosedElements())) {
-                    if (!config.elements
-                        .overrides(execElem, candMeth, typeElem)) continue;
-                    if (writeDirectSummary(out,
-                                           outCtxt,
-                                           candMeth,
-                                           beforeOkay,
-                                           afterOkay))
-                        return true;
-                    break;
-                }
+            TypeElement triedType = null;
+            for (ExecutableElement candMeth : config
+                .getOverriddenMethods(execElem)) {
+                /* Try only the first overridden method of each
+                 * supertype. */
+                TypeElement candType =
+                    (TypeElement) candMeth.getEnclosingElement();
+                if (candType == triedType) continue;
+                triedType = candType;
+                if (writeDirectSummary(out,
+                                       outCtxt,
+                                       candMeth,
+                                       beforeOkay,
+                                       afterOkay))
+                    return true;
             }
         } else {
             /* We are searching for a superclass with documentation. */
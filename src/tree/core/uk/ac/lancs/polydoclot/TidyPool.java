@@ -0,0 +1,362 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+
+package uk.ac.lancs.polydoclot;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.tools.Diagnostic.Kind;
+import uk.ac.lancs.polydoclot.util.CharacterReferenceWriter;
+
+/**
+ * Tidies pages in batches using a bounded set of HTMLTidy processes.
+ * Each page is spooled as UTF-8 to a temporary file, and queued. Each
+ * worker takes a batch of queued pages, and runs a single HTMLTidy
+ * process to modify them in place. Diagnostics are attributed to
+ * individual pages, so each page is still reported as having warnings
+ * or errors, and gets its own log. Finally, each page is converted to
+ * its slice's character encoding, and written to its destination.
+ * 
+ * @author simpsons
+ */
+final class TidyPool {
+    /**
+     * The maximum number of pages passed to a single HTMLTidy process
+     */
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * How long a worker waits for more pages to fill a batch
+     */
+    private static final long LINGER_MILLIS = 50;
+
+    private final Configuration config;
+
+    private final String tidyProgram;
+
+    private final int workerCount;
+
+    private final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+
+    private final Collection<Thread> workers = new ArrayList<>();
+
+    private Path spoolDirectory;
+
+    /**
+     * Matches the position and severity that HTMLTidy's
+     * <samp>--gnu-emacs</samp> format places after the file name, as
+     * in <samp>12:5: Warning: </samp>
+     */
+    private static final Pattern DIAGNOSTIC_PATTERN =
+        Pattern.compile("^\\d+:\\d+: (?<kind>Warning|Error): ");
+
+    private static final class Job {
+        final Path spool;
+
+        final Path target;
+
+        final Charset charset;
+
+        final Path tidyLog;
+
+        final String displayName;
+
+        Job(Path spool, Path target, Charset charset, Path tidyLog,
+            String displayName) {
+            this.spool = spool;
+            this.target = target;
+            this.charset = charset;
+            this.tidyLog = tidyLog;
+            this.displayName = displayName;
+        }
+    }
+
+    /**
+     * Queued once per worker to tell it to stop after all pages
+     */
+    private static final Job SHUTDOWN = new Job(null, null, null, null, null);
+
+    /**
+     * Prepare a pool of tidying processes. No processes or threads are
+     * created until the first page is submitted.
+     * 
+     * @param config the configuration to report to
+     * 
+     * @param tidyProgram the HTMLTidy executable
+     * 
+     * @param workerCount the maximum number of concurrent HTMLTidy
+     * processes
+     */
+    TidyPool(Configuration config, String tidyProgram, int workerCount) {
+        this.config = config;
+        this.tidyProgram = tidyProgram;
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Create a file to spool a page to before it is tidied. The
+     * spooling directory and the workers are created if this is the
+     * first call.
+     * 
+     * @return a fresh, empty file
+     * 
+     * @throws IOException if an I/O error occurred in creating the file
+     */
+    synchronized Path createSpoolFile() throws IOException {
+        if (spoolDirectory == null) {
+            spoolDirectory = Files.createTempDirectory("polydoclot-tidy-");
+            for (int i = 0; i < workerCount; i++) {
+                Thread t = new Thread(this::work, "tidy-worker-" + i);
+                t.setDaemon(true);
+                workers.add(t);
+                t.start();
+            }
+        }
+        return Files.createTempFile(spoolDirectory, "page-", ".html");
+    }
+
+    /**
+     * Queue a spooled page for tidying.
+     * 
+     * @param spool the file the page was spooled to, as obtained from
+     * {@link #createSpoolFile()}
+     * 
+     * @param target the final destination of the page
+     * 
+     * @param charset the character encoding of the destination
+     * 
+     * @param tidyLog the file to receive the page's diagnostics, or
+     * {@code null} if not required
+     * 
+     * @param displayName the name to identify the page by in
+     * diagnostics
+     */
+    void submit(Path spool, Path target, Charset charset, Path tidyLog,
+                String displayName) {
+        queue.add(new Job(spool, target, charset, tidyLog, displayName));
+    }
+
+    /**
+     * Wait for all submitted pages to be tidied and written, and release
+     * all resources. No more pages may be submitted.
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void finish() throws InterruptedException {
+        final Collection<Thread> started;
+        final Path dir;
+        synchronized (this) {
+            started = new ArrayList<>(workers);
+            dir = spoolDirectory;
+        }
+        for (int i = 0; i < started.size(); i++)
+            queue.add(SHUTDOWN);
+        for (Thread t : started)
+            t.join();
+        if (dir != null) {
+            try {
+                Files.deleteIfExists(dir);
+            } catch (IOException ex) {
+                /* Leave it behind in the temporary area. */
+            }
+        }
+    }
+
+    private void work() {
+        List<Job> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            boolean stopping = false;
+            while (!stopping) {
+                Job first = queue.take();
+                if (first == SHUTDOWN) return;
+                batch.add(first);
+
+                /* Give other pages a chance to join the batch. The
+                 * shutdown marker is only queued after all pages, so it
+                 * also ends the batch. */
+                while (batch.size() < BATCH_SIZE) {
+                    Job next =
+                        queue.poll(LINGER_MILLIS, TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    if (next == SHUTDOWN) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                /* A failure in one batch must not stop the worker, or
+                 * later pages would never be written. */
+                try {
+                    process(batch);
+                } catch (RuntimeException ex) {
+                    for (Job job : batch) {
+                        config.report(Kind.ERROR, "tidy.pool.failure",
+                                      ex.toString(), job.target);
+                        deleteQuietly(job.spool);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            for (Job job : batch)
+                config.report(Kind.ERROR, "tidy.interrupt", job.target);
+            for (Job job; (job = queue.poll()) != null;)
+                if (job != SHUTDOWN)
+                    config.report(Kind.ERROR, "tidy.interrupt", job.target);
+        }
+    }
+
+    private void process(List<Job> batch) throws InterruptedException {
+        /* Run a single HTMLTidy process over the whole batch, modifying
+         * the files in place, and reporting diagnostics prefixed with
+         * the file names. */
+        List<String> lines = new ArrayList<>();
+        int rc;
+        Path batchLog = null;
+        long start = System.nanoTime();
+        try {
+            batchLog = Files.createTempFile(spoolDirectory, "batch-", ".log");
+            List<String> args =
+                new ArrayList<>(Arrays.asList(tidyProgram,
+                                              "-i",
+                                              "-q",
+                                              "-utf8",
+                                              "--wrap",
+                                              "0",
+                                              "--gnu-emacs",
+                                              "yes",
+                                              "-m",
+                                              "-f",
+                                              batchLog.toString()));
+            for (Job job : batch)
+                args.add(job.spool.toString());
+            Process p = new ProcessBuilder(args)
+                .redirectOutput(Redirect.DISCARD)
+                .redirectError(Redirect.INHERIT).start();
+            rc = p.waitFor();
+            lines.addAll(Files.readAllLines(batchLog, StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            for (Job job : batch) {
+                config.report(Kind.ERROR, "tidy.pool.failure",
+                              ex.getMessage(), job.target);
+                deleteQuietly(job.spool);
+            }
+            deleteQuietly(batchLog);
+            return;
+        }
+        deleteQuietly(batchLog);
+        if (config.runReport != null) {
+            long share = (System.nanoTime() - start) / batch.size();
+            for (Job job : batch)
+                config.runReport.tidied(job.target, share);
+        }
+
+        /* Attribute the diagnostics to each page. */
+        boolean attributed = false;
+        int[] status = new int[batch.size()];
+        List<List<String>> pageLines = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Job job = batch.get(i);
+            String prefix = job.spool.toString() + ':';
+            List<String> mine = new ArrayList<>();
+            for (String line : lines) {
+                if (!line.startsWith(prefix)) continue;
+                String rest = line.substring(prefix.length());
+                mine.add(job.displayName + ':' + rest);
+
+                /* Only warnings and errors affect the status, as
+                 * HTMLTidy's exit code does. */
+                Matcher m = DIAGNOSTIC_PATTERN.matcher(rest);
+                if (!m.find()) continue;
+                if (m.group("kind").equals("Error"))
+                    status[i] = 2;
+                else if (status[i] == 0) status[i] = 1;
+            }
+            if (!mine.isEmpty()) attributed = true;
+            pageLines.add(mine);
+        }
+
+        /* If the process failed without saying which page was at
+         * fault, blame all of them. */
+        if (rc > 1 && !attributed) Arrays.fill(status, rc);
+
+        for (int i = 0; i < batch.size(); i++) {
+            Job job = batch.get(i);
+            try {
+                if (job.tidyLog != null)
+                    Files.write(job.tidyLog, pageLines.get(i),
+                                StandardCharsets.UTF_8);
+                try (Reader in = Files.newBufferedReader(job.spool,
+                                                         StandardCharsets.UTF_8);
+                     Writer out = new CharacterReferenceWriter(config
+                         .openServedFile(job.target), job.charset)) {
+                    in.transferTo(out);
+                }
+                config.reportTidyStatus(status[i], job.tidyLog);
+            } catch (IOException ex) {
+                config.report(Kind.ERROR, "tidy.pool.failure",
+                              ex.getMessage(), job.target);
+            } finally {
+                deleteQuietly(job.spool);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            /* Leave it behind in the temporary area. */
+        }
+    }
+}
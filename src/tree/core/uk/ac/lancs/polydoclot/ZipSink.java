@@ -0,0 +1,798 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+package uk.ac.lancs.polydoclot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Writes generated files into a zip archive. Each file is buffered
+ * until closed, and then deflated on a pool of threads, and spooled
+ * to a temporary file. Files with identical content are deflated only
+ * once. When the sink is closed, entries are written in order of name,
+ * so the archive's layout does not depend on the order in which pages
+ * were completed, and the archive replaces the original atomically.
+ * 
+ * <p>
+ * Entries of an existing archive that are not written again are
+ * copied into the new archive without being decompressed, so the
+ * archive is modified rather than replaced. Directory entries are
+ * synthesized for all entries.
+ * 
+ * <p>
+ * A staging directory provides paths for generators to resolve and
+ * create directories in, but no files are written there. It is deleted
+ * when the sink is closed.
+ * 
+ * @author simpsons
+ */
+final class ZipSink implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+
+    private static final int CENTRAL_HEADER = 0x02014b50;
+
+    private static final int END_HEADER = 0x06054b50;
+
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final int UTF8_FLAG = 0x0800;
+
+    private static final int STORED = 0;
+
+    private static final int DEFLATED = 8;
+
+    private static final long MAX_32 = 0xffffffffL;
+
+    private static final int MAX_16 = 0xffff;
+
+    /**
+     * Describes where an entry's compressed data is held, and how to
+     * describe it in the archive
+     */
+    private static final class Blob {
+        final FileChannel source;
+
+        final long offset;
+
+        final long compressedSize;
+
+        final long size;
+
+        final int crc;
+
+        final int method;
+
+        final int time;
+
+        final int date;
+
+        Blob(FileChannel source, long offset, long compressedSize, long size,
+             int crc, int method, int time, int date) {
+            this.source = source;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.crc = crc;
+            this.method = method;
+            this.time = time;
+            this.date = date;
+        }
+    }
+
+    /**
+     * Reads part of a file without moving the file's position, so that
+     * entries sharing a source can be read and copied concurrently
+     */
+    private static final class Region implements ReadableByteChannel {
+        private final FileChannel source;
+
+        private final long end;
+
+        private long pos;
+
+        private boolean open = true;
+
+        Region(FileChannel source, long offset, long length) {
+            this.source = source;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) throw new ClosedChannelException();
+            if (pos >= end) return -1;
+            final int limit = dst.limit();
+            if (dst.remaining() > end - pos)
+                dst.limit(dst.position() + (int) (end - pos));
+            try {
+                int got = source.read(dst, pos);
+                if (got < 0) throw new ZipException("truncated archive");
+                pos += got;
+                return got;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            /* The source is shared, so leave it open. */
+            open = false;
+        }
+    }
+
+    private final Path archive;
+
+    private final Path root;
+
+    private final Path spool;
+
+    private final FileChannel spoolChannel;
+
+    private final AtomicLong spoolSize = new AtomicLong();
+
+    private final FileChannel oldChannel;
+
+    private final Map<String, Blob> oldEntries;
+
+    private final Map<String, CompletableFuture<Blob>> entries =
+        new ConcurrentHashMap<>();
+
+    private final Map<ByteBuffer, CompletableFuture<Blob>> contents =
+        new ConcurrentHashMap<>();
+
+    private final AtomicInteger shared = new AtomicInteger();
+
+    private final ThreadPoolExecutor workers;
+
+    private final Semaphore capacity;
+
+    private final int time, date;
+
+    private int entryCount;
+
+    private boolean closed = false;
+
+    /**
+     * Prepare to write to an archive.
+     * 
+     * @param archive the archive to create or modify
+     * 
+     * @throws IOException if an existing archive could not be read, or
+     * the staging directory or spool could not be created
+     */
+    ZipSink(Path archive) throws IOException {
+        this.archive = archive.toAbsolutePath();
+        LocalDateTime now = LocalDateTime.now();
+        this.time = (now.getHour() << 11) | (now.getMinute() << 5) |
+            (now.getSecond() >> 1);
+        this.date = ((now.getYear() - 1980) << 9) |
+            (now.getMonthValue() << 5) | now.getDayOfMonth();
+
+        if (Files.exists(this.archive)) {
+            this.oldChannel =
+                FileChannel.open(this.archive, StandardOpenOption.READ);
+            try {
+                this.oldEntries = readEntries(this.oldChannel);
+            } catch (IOException | RuntimeException ex) {
+                this.oldChannel.close();
+                throw ex;
+            }
+        } else {
+            this.oldChannel = null;
+            this.oldEntries = new ConcurrentHashMap<>();
+        }
+
+        this.root = Files.createTempDirectory("polydoclot-zip-");
+        this.spool = Files.createTempFile("polydoclot-zip-", ".spool");
+        this.spoolChannel =
+            FileChannel.open(spool, StandardOpenOption.READ,
+                             StandardOpenOption.WRITE,
+                             StandardOpenOption.DELETE_ON_CLOSE);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.capacity = new Semaphore(4 * threads);
+        AtomicInteger serial = new AtomicInteger();
+        this.workers =
+            new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                                   new LinkedBlockingQueue<>(), r -> {
+                                       Thread t = new Thread(r, "zip-"
+                                           + serial.getAndIncrement());
+                                       t.setDaemon(true);
+                                       return t;
+                                   });
+    }
+
+    /**
+     * Get the staging directory, which stands for the root of the
+     * archive.
+     * 
+     * @return the staging directory
+     */
+    Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the number of entries written to the archive. This is only
+     * valid after the sink is closed.
+     * 
+     * @return the number of entries, including directories
+     */
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Get the number of files whose content was identical to an
+     * earlier file's, and so was not deflated again.
+     * 
+     * @return the number of files sharing content
+     */
+    int getSharedCount() {
+        return shared.get();
+    }
+
+    /**
+     * Open an entry for writing. Its content is deflated when the
+     * stream is closed, and replaces any earlier entry with the same
+     * name.
+     * 
+     * @param name the entry name
+     * 
+     * @return a stream to write the content to
+     */
+    OutputStream open(String name) {
+        return new ByteArrayOutputStream(16 * 1024) {
+            private boolean done = false;
+
+            @Override
+            public void close() {
+                if (done) return;
+                done = true;
+                submit(name, buf, count);
+            }
+        };
+    }
+
+    /**
+     * Determine whether an entry exists, either because it has been
+     * written, or because it was in the existing archive.
+     * 
+     * @param name the entry name
+     * 
+     * @return {@code true} if the entry exists
+     */
+    boolean exists(String name) {
+        return entries.containsKey(name) || oldEntries.containsKey(name);
+    }
+
+    /**
+     * Prevent an entry of the existing archive from being copied into
+     * the new one.
+     * 
+     * @param name the entry name
+     */
+    void discard(String name) {
+        oldEntries.remove(name);
+    }
+
+    /**
+     * Read an entry, either one written already, or one from the
+     * existing archive.
+     * 
+     * @param name the entry name
+     * 
+     * @return the entry's decompressed content
+     * 
+     * @throws NoSuchFileException if the entry does not exist
+     * 
+     * @throws IOException if the entry could not be read
+     */
+    InputStream openExisting(String name) throws IOException {
+        CompletableFuture<Blob> pending = entries.get(name);
+        Blob blob = pending != null ? join(pending) : oldEntries.get(name);
+        if (blob == null) throw new NoSuchFileException(name);
+        InputStream in = Channels
+            .newInputStream(new Region(blob.source, blob.offset,
+                                       blob.compressedSize));
+        if (blob.method == DEFLATED)
+            in = new InflaterInputStream(in, new Inflater(true));
+        return in;
+    }
+
+    private static Blob join(CompletableFuture<Blob> future)
+        throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private void submit(String name, byte[] data, int len) {
+        CompletableFuture<Blob> result = new CompletableFuture<>();
+        entries.put(name, result);
+        capacity.acquireUninterruptibly();
+        workers.execute(() -> {
+            try {
+                /* Share the work of compressing identical content. */
+                ByteBuffer key = ByteBuffer.wrap(digest(data, len));
+                CompletableFuture<Blob> mine = new CompletableFuture<>();
+                CompletableFuture<Blob> prior =
+                    contents.putIfAbsent(key, mine);
+                if (prior != null) {
+                    shared.incrementAndGet();
+                    prior.whenComplete((blob, ex) -> {
+                        if (ex != null)
+                            result.completeExceptionally(ex);
+                        else
+                            result.complete(blob);
+                    });
+                    return;
+                }
+                try {
+                    Blob blob = deflate(data, len);
+                    mine.complete(blob);
+                    result.complete(blob);
+                } catch (IOException | RuntimeException ex) {
+                    mine.completeExceptionally(ex);
+                    throw ex;
+                }
+            } catch (IOException | RuntimeException ex) {
+                result.completeExceptionally(ex);
+            } finally {
+                capacity.release();
+            }
+        });
+    }
+
+    private static byte[] digest(byte[] data, int len) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, 0, len);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError("unreachable", ex);
+        }
+    }
+
+    private Blob deflate(byte[] data, int len) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, len);
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(len / 4);
+        try {
+            deflater.setInput(data, 0, len);
+            deflater.finish();
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int got = deflater.deflate(buf);
+                compressed.write(buf, 0, got);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        /* Store the content as it is if compression doesn't help. */
+        final int method;
+        final ByteBuffer content;
+        if (compressed.size() < len) {
+            method = DEFLATED;
+            content =
+                ByteBuffer.wrap(compressed.toByteArray(), 0, compressed.size());
+        } else {
+            method = STORED;
+            content = ByteBuffer.wrap(data, 0, len);
+        }
+        long offset = spoolSize.getAndAdd(content.remaining());
+        long csize = content.remaining();
+        for (long pos = offset; content.hasRemaining();)
+            pos += spoolChannel.write(content, pos);
+        return new Blob(spoolChannel, offset, csize, len,
+                        (int) crc.getValue(), method, time, date);
+    }
+
+    /**
+     * Wait for all entries to be compressed, and write the archive.
+     * The staging directory and spool are then deleted.
+     * 
+     * @throws IOException if an entry could not be compressed, or the
+     * archive could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+
+            /* Order all entries by name, with new ones replacing old
+             * ones, and directories for all. */
+            Map<String, Blob> plan = new TreeMap<>(oldEntries);
+            for (Map.Entry<String, CompletableFuture<Blob>> entry : entries
+                .entrySet())
+                plan.put(entry.getKey(), join(entry.getValue()));
+            Blob dirBlob = new Blob(null, 0, 0, 0, 0, STORED, time, date);
+            for (String name : plan.keySet().toArray(new String[0])) {
+                for (int slash = name.indexOf('/'); slash >= 0;
+                     slash = name.indexOf('/', slash + 1))
+                    plan.putIfAbsent(name.substring(0, slash + 1), dirBlob);
+            }
+
+            Path parent = archive.getParent();
+            Path tmp = Files.createTempFile(parent, ".polydoclot-", ".zip");
+            try {
+                try (FileChannel out =
+                    FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    writeArchive(out, plan);
+                }
+                if (oldChannel != null) oldChannel.close();
+                try {
+                    Files.move(tmp, archive,
+                               StandardCopyOption.REPLACE_EXISTING,
+                               StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp, archive,
+                               StandardCopyOption.REPLACE_EXISTING);
+                }
+                entryCount = plan.size();
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } finally {
+            if (oldChannel != null) oldChannel.close();
+            spoolChannel.close();
+            deleteTree(root);
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file,
+                                             BasicFileAttributes attrs)
+                throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir,
+                                                      IOException exc)
+                throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void writeArchive(FileChannel out, Map<String, Blob> plan)
+        throws IOException {
+        Collection<Map.Entry<String, Blob>> items = plan.entrySet();
+        Map<String, Long> offsets = new HashMap<>();
+
+        /* Write each entry's local header and data. */
+        for (Map.Entry<String, Blob> item : items) {
+            byte[] name = item.getKey().getBytes(StandardCharsets.UTF_8);
+            Blob blob = item.getValue();
+            boolean zip64 = blob.size >= MAX_32 ||
+                blob.compressedSize >= MAX_32;
+            offsets.put(item.getKey(), out.position());
+
+            ByteBuffer hdr = ByteBuffer.allocate(30 + name.length + 20)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            hdr.putInt(LOCAL_HEADER);
+            hdr.putShort((short) (zip64 ? 45 : 20));
+            hdr.putShort((short) UTF8_FLAG);
+            hdr.putShort((short) blob.method);
+            hdr.putShort((short) blob.time);
+            hdr.putShort((short) blob.date);
+            hdr.putInt(blob.crc);
+            hdr.putInt((int) (zip64 ? MAX_32 : blob.compressedSize));
+            hdr.putInt((int) (zip64 ? MAX_32 : blob.size));
+            hdr.putShort((short) name.length);
+            hdr.putShort((short) (zip64 ? 20 : 0));
+            hdr.put(name);
+            if (zip64) {
+                hdr.putShort((short) ZIP64_EXTRA);
+                hdr.putShort((short) 16);
+                hdr.putLong(blob.size);
+                hdr.putLong(blob.compressedSize);
+            }
+            hdr.flip();
+            writeFully(out, hdr);
+
+            for (long done = 0; done < blob.compressedSize;)
+                done += blob.source.transferTo(blob.offset + done,
+                                               blob.compressedSize - done,
+                                               out);
+        }
+
+        /* Write the central directory. */
+        long cdStart = out.position();
+        for (Map.Entry<String, Blob> item : items) {
+            byte[] name = item.getKey().getBytes(StandardCharsets.UTF_8);
+            Blob blob = item.getValue();
+            long offset = offsets.get(item.getKey());
+            boolean bigSize = blob.size >= MAX_32;
+            boolean bigCompressed = blob.compressedSize >= MAX_32;
+            boolean bigOffset = offset >= MAX_32;
+            int extra = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) +
+                (bigOffset ? 8 : 0);
+            boolean zip64 = extra > 0;
+
+            ByteBuffer hdr =
+                ByteBuffer.allocate(46 + name.length + (zip64 ? 4 + extra : 0))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            hdr.putInt(CENTRAL_HEADER);
+            hdr.putShort((short) (zip64 ? 45 : 20));
+            hdr.putShort((short) (zip64 ? 45 : 20));
+            hdr.putShort((short) UTF8_FLAG);
+            hdr.putShort((short) blob.method);
+            hdr.putShort((short) blob.time);
+            hdr.putShort((short) blob.date);
+            hdr.putInt(blob.crc);
+            hdr.putInt((int) (bigCompressed ? MAX_32 : blob.compressedSize));
+            hdr.putInt((int) (bigSize ? MAX_32 : blob.size));
+            hdr.putShort((short) name.length);
+            hdr.putShort((short) (zip64 ? 4 + extra : 0));
+            hdr.putShort((short) 0);
+            hdr.putShort((short) 0);
+            hdr.putShort((short) 0);
+            hdr.putInt(0);
+            hdr.putInt((int) (bigOffset ? MAX_32 : offset));
+            hdr.put(name);
+            if (zip64) {
+                hdr.putShort((short) ZIP64_EXTRA);
+                hdr.putShort((short) extra);
+                if (bigSize) hdr.putLong(blob.size);
+                if (bigCompressed) hdr.putLong(blob.compressedSize);
+                if (bigOffset) hdr.putLong(offset);
+            }
+            hdr.flip();
+            writeFully(out, hdr);
+        }
+        long cdEnd = out.position();
+        long cdSize = cdEnd - cdStart;
+        long count = items.size();
+
+        /* Write the end records, with Zip64 ones if the counts or
+         * offsets don't fit. */
+        boolean zip64 = count >= MAX_16 || cdSize >= MAX_32 ||
+            cdStart >= MAX_32;
+        ByteBuffer end = ByteBuffer.allocate(56 + 20 + 22)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        if (zip64) {
+            end.putInt(ZIP64_END_HEADER);
+            end.putLong(44);
+            end.putShort((short) 45);
+            end.putShort((short) 45);
+            end.putInt(0);
+            end.putInt(0);
+            end.putLong(count);
+            end.putLong(count);
+            end.putLong(cdSize);
+            end.putLong(cdStart);
+
+            end.putInt(ZIP64_LOCATOR);
+            end.putInt(0);
+            end.putLong(cdEnd);
+            end.putInt(1);
+        }
+        end.putInt(END_HEADER);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) (zip64 ? MAX_16 : count));
+        end.putShort((short) (zip64 ? MAX_16 : count));
+        end.putInt((int) (zip64 ? MAX_32 : cdSize));
+        end.putInt((int) (zip64 ? MAX_32 : cdStart));
+        end.putShort((short) 0);
+        end.flip();
+        writeFully(out, end);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf)
+        throws IOException {
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+
+    private static ByteBuffer read(FileChannel in, long pos, int len)
+        throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            int got = in.read(buf, pos + buf.position());
+            if (got < 0) throw new ZipException("truncated archive");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Read the central directory of an existing archive. Directories
+     * and encrypted entries are ignored.
+     * 
+     * @param in the archive
+     * 
+     * @return the location and description of each entry's data
+     * 
+     * @throws IOException if the archive could not be read
+     */
+    private static Map<String, Blob> readEntries(FileChannel in)
+        throws IOException {
+        /* Find the end record. */
+        final long size = in.size();
+        final int tailLen = (int) Math.min(size, MAX_16 + 22);
+        final long tailPos = size - tailLen;
+        ByteBuffer tail = read(in, tailPos, tailLen);
+        int end = -1;
+        for (int i = tailLen - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) throw new ZipException("not a zip file");
+        long count = tail.getShort(end + 10) & MAX_16;
+        long cdSize = tail.getInt(end + 12) & MAX_32;
+        long cdStart = tail.getInt(end + 16) & MAX_32;
+        if (count == MAX_16 || cdSize == MAX_32 || cdStart == MAX_32) {
+            ByteBuffer loc = read(in, tailPos + end - 20, 20);
+            if (loc.getInt(0) != ZIP64_LOCATOR)
+                throw new ZipException("missing Zip64 locator");
+            ByteBuffer rec = read(in, loc.getLong(8), 56);
+            if (rec.getInt(0) != ZIP64_END_HEADER)
+                throw new ZipException("missing Zip64 end record");
+            count = rec.getLong(32);
+            cdSize = rec.getLong(40);
+            cdStart = rec.getLong(48);
+        }
+
+        /* Read each entry's description. */
+        Map<String, Blob> result = new ConcurrentHashMap<>();
+        ByteBuffer cd = read(in, cdStart, (int) cdSize);
+        int p = 0;
+        for (long i = 0; i < count; i++) {
+            if (cd.getInt(p) != CENTRAL_HEADER)
+                throw new ZipException("bad central directory");
+            int flags = cd.getShort(p + 8) & MAX_16;
+            int method = cd.getShort(p + 10) & MAX_16;
+            int time = cd.getShort(p + 12) & MAX_16;
+            int date = cd.getShort(p + 14) & MAX_16;
+            int crc = cd.getInt(p + 16);
+            long csize = cd.getInt(p + 20) & MAX_32;
+            long usize = cd.getInt(p + 24) & MAX_32;
+            int nameLen = cd.getShort(p + 28) & MAX_16;
+            int extraLen = cd.getShort(p + 30) & MAX_16;
+            int commentLen = cd.getShort(p + 32) & MAX_16;
+            long offset = cd.getInt(p + 42) & MAX_32;
+            byte[] nameBytes = new byte[nameLen];
+            for (int j = 0; j < nameLen; j++)
+                nameBytes[j] = cd.get(p + 46 + j);
+            String name = new String(nameBytes, (flags & UTF8_FLAG) != 0 ?
+                StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+            for (int q = p + 46 + nameLen; q + 4 <= p + 46 + nameLen +
+                extraLen;) {
+                int id = cd.getShort(q) & MAX_16;
+                int len = cd.getShort(q + 2) & MAX_16;
+                if (id == ZIP64_EXTRA) {
+                    int r = q + 4;
+                    if (usize == MAX_32) {
+                        usize = cd.getLong(r);
+                        r += 8;
+                    }
+                    if (csize == MAX_32) {
+                        csize = cd.getLong(r);
+                        r += 8;
+                    }
+                    if (offset == MAX_32) offset = cd.getLong(r);
+                }
+                q += 4 + len;
+            }
+            p += 46 + nameLen + extraLen + commentLen;
+
+            if (name.endsWith("/") || (flags & 1) != 0) continue;
+            ByteBuffer local = read(in, offset, 30);
+            if (local.getInt(0) != LOCAL_HEADER)
+                throw new ZipException("bad local header: " + name);
+            long dataStart = offset + 30 + (local.getShort(26) & MAX_16) +
+                (local.getShort(28) & MAX_16);
+            result.put(name, new Blob(in, dataStart, csize, usize, crc,
+                                      method, time, date));
+        }
+        return result;
+    }
+}
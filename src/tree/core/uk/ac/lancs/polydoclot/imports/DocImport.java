@@ -45,10 +45,18 @@ import java.io.Reader;
 import java.net.URI;
 import java.net.URLConnection;
 import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Pattern;
@@ -86,9 +94,9 @@ public final class DocImport {
      */
     public final URI location;
 
-    private final URI cache;
+    final URI cache;
 
-    private final Collection<String> manualMods;
+    final Collection<String> manualMods;
 
     /**
      * This naming scheme is used by the standard doclet since about
@@ -198,29 +206,77 @@ public final class DocImport {
         this(location, location);
     }
 
-    private Properties loadProperties() throws IOException {
-        Properties docProps = new Properties();
+    /**
+     * Fetches named meta-data resources of an installation.
+     */
+    @FunctionalInterface
+    private interface Source {
+        ImportCache.Resource fetch(String name) throws IOException;
+    }
 
-        URLConnection conn =
-            cache.resolve(PROPERTIES_NAME).toURL().openConnection();
-        Properties connProps = new Properties();
-        String rawType = conn.getContentType();
-        if (rawType == null) return docProps;
-        String type = new HttpSyntax.Tokenizer(rawType)
-            .parseMediaTypeParameters(connProps);
+    private Source remoteSource(int timeout, ImportCache store) {
+        return name -> {
+            URI loc = cache.resolve(name);
+            if (store != null && ImportCache.isCacheable(loc))
+                return store.fetch(loc, timeout);
+            URLConnection conn = loc.toURL().openConnection();
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            conn.setRequestProperty("Accept-Encoding", "gzip");
+            return new ImportCache.Resource(conn.getContentType(),
+                                            getDecodedStream(conn));
+        };
+    }
+
+    private static Source archiveSource(FileSystem zip) {
+        return name -> {
+            Path entry = zip.getPath(name);
+            try {
+                return new ImportCache.Resource(URLConnection
+                    .guessContentTypeFromName(name), Files
+                        .newInputStream(entry));
+            } catch (NoSuchFileException ex) {
+                throw new FileNotFoundException(entry.toUri().toString());
+            }
+        };
+    }
+
+    /**
+     * Get the local archive holding the meta-data, if the local prefix
+     * identifies one.
+     * 
+     * @return the archive file; or {@code null} if the local prefix is
+     * not a local file
+     */
+    private Path getArchive() {
+        if (!"file".equalsIgnoreCase(cache.getScheme())) return null;
+        Path path = Paths.get(cache);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    private static Properties loadProperties(Source source)
+        throws IOException {
+        Properties docProps = new Properties();
 
         try {
-            InputStream decoded = getDecodedStream(conn);
-
-            if (type.equalsIgnoreCase("text/plain")) {
-                String charset = connProps.getProperty("charset");
-                if (charset == null)
-                    docProps.load(decoded);
-                else
-                    docProps.load(new InputStreamReader(decoded, charset));
-            } else if (type.equalsIgnoreCase("application/xml") ||
-                type.equalsIgnoreCase("text/xml")) {
-                docProps.loadFromXML(decoded);
+            ImportCache.Resource res = source.fetch(PROPERTIES_NAME);
+            try (InputStream decoded = res.content) {
+                Properties connProps = new Properties();
+                String rawType = res.contentType;
+                if (rawType == null) return docProps;
+                String type = new HttpSyntax.Tokenizer(rawType)
+                    .parseMediaTypeParameters(connProps);
+
+                if (type.equalsIgnoreCase("text/plain")) {
+                    String charset = connProps.getProperty("charset");
+                    if (charset == null)
+                        docProps.load(decoded);
+                    else
+                        docProps.load(new InputStreamReader(decoded, charset));
+                } else if (type.equalsIgnoreCase("application/xml") ||
+                    type.equalsIgnoreCase("text/xml")) {
+                    docProps.loadFromXML(decoded);
+                }
             }
         } catch (FileNotFoundException ex) {
             /* Ignore - it never existed. */
@@ -228,32 +284,34 @@ public final class DocImport {
         return docProps;
     }
 
-    private Reader openTextFile(String name) throws IOException {
+    private Reader openTextFile(String name, Source source)
+        throws IOException {
         URI loc = cache.resolve(name);
-        URLConnection conn = loc.toURL().openConnection();
+        ImportCache.Resource res = source.fetch(name);
 
         /* Check the type and extract the character encoding. */
-        String rawType = conn.getContentType();
+        String rawType = res.contentType;
         if (rawType == null) rawType = "content/unknown";
         Properties connProps = new Properties();
         String type = new HttpSyntax.Tokenizer(rawType)
             .parseMediaTypeParameters(connProps);
-        if (!type.equals("text/plain") && !type.equals("content/unknown"))
+        if (!type.equals("text/plain") && !type.equals("content/unknown")) {
+            res.content.close();
             throw new IOException("content is not plain text but " + type
                 + " at " + loc);
+        }
 
-        InputStream decoded = getDecodedStream(conn);
         String charset =
             connProps.getProperty("charset", Charset.defaultCharset().name());
-        Reader streamReader = new InputStreamReader(decoded, charset);
+        Reader streamReader = new InputStreamReader(res.content, charset);
         return streamReader;
     }
 
-    private Reader openPackageList() throws IOException {
+    private Reader openPackageList(Source source) throws IOException {
         try {
-            return openTextFile(ELEMENT_LIST_NAME);
+            return openTextFile(ELEMENT_LIST_NAME, source);
         } catch (IOException ex) {
-            return openTextFile(PACKAGE_LIST_NAME);
+            return openTextFile(PACKAGE_LIST_NAME, source);
         }
     }
 
@@ -293,33 +351,112 @@ public final class DocImport {
                         Map<? super String, ? super DocReference> modMap,
                         DocMappingFactory mappingFactory)
         throws IOException {
-        Properties docProps = loadProperties();
+        load(mappingFactory, 0, null).install(into, modMap);
+    }
+
+    /**
+     * Holds the meta-data of an installation, ready to be merged into
+     * package and module mappings. Loading an installation's meta-data
+     * involves no shared state, so several may be loaded concurrently,
+     * and then installed in a deterministic order.
+     * 
+     * @author simpsons
+     */
+    public static final class Listing {
+        final DocReference ref;
+
+        final List<String> modules;
+
+        final List<String> packages;
+
+        Listing(DocReference ref, List<String> modules,
+                List<String> packages) {
+            this.ref = ref;
+            this.modules = modules;
+            this.packages = packages;
+        }
+
+        /**
+         * Populate mappings from package/module name to the
+         * installation.
+         * 
+         * @param into the package mapping to be populated
+         * 
+         * @param modMap the module mapping to be populated
+         */
+        public void install(Map<? super String, ? super DocReference> into,
+                            Map<? super String, ? super DocReference> modMap) {
+            for (String modName : modules)
+                modMap.put(modName, ref);
+            for (String pkgName : packages)
+                into.put(pkgName, ref);
+        }
+    }
+
+    /**
+     * Access the installation's meta-data to determine what modules and
+     * packages it documents, and how to link to them and their
+     * elements, without populating any mappings. This performs the
+     * same accesses as
+     * {@link #install(Map, Map, DocMappingFactory)}.
+     * 
+     * @param mappingFactory a way to map program elements into URIs
+     * 
+     * @param timeout the timeout in milliseconds for connecting to and
+     * reading from the installation; or 0 for no timeout
+     * 
+     * @param store a persistent cache of meta-data to revalidate and
+     * fall back on; or {@code null} to fetch directly
+     * 
+     * @return the installation's listing
+     * 
+     * @throws IOException if an error occurs in accessing the
+     * installation
+     */
+    public Listing load(DocMappingFactory mappingFactory, int timeout,
+                        ImportCache store)
+        throws IOException {
+        /* Read directly from a local archive, such as a javadoc JAR,
+         * without extracting it. */
+        Path archive = getArchive();
+        if (archive != null) {
+            try (FileSystem zip =
+                FileSystems.newFileSystem(archive, (ClassLoader) null)) {
+                return load(mappingFactory, archiveSource(zip));
+            }
+        }
+        return load(mappingFactory, remoteSource(timeout, store));
+    }
+
+    private Listing load(DocMappingFactory mappingFactory, Source source)
+        throws IOException {
+        Properties docProps = loadProperties(source);
         DocMapping mapping =
             mappingFactory.createMapping(location, cache, docProps);
         DocReference ref = new DocReference(location, docProps, mapping);
 
         /* For Java 9 installations that don't list their own modules,
          * use the manually provided list. */
-        for (String modName : manualMods)
-            modMap.put(modName, ref);
-        manualMods.clear();
+        List<String> modules = new ArrayList<>(manualMods);
+        List<String> packages = new ArrayList<>();
 
         /* Load the package-list file from the cache location. */
-        try (BufferedReader reader = new BufferedReader(openPackageList())) {
+        try (BufferedReader reader =
+            new BufferedReader(openPackageList(source))) {
             for (String line = reader.readLine(); line != null;
                  line = reader.readLine()) {
                 line = line.trim();
                 if (line.startsWith(MODULE_LINE_PREFIX)) {
-                    modMap.put(line.substring(MODULE_LINE_PREFIX.length()),
-                               ref);
+                    modules.add(line.substring(MODULE_LINE_PREFIX.length()));
                 } else {
-                    into.put(line, ref);
+                    packages.add(line);
                 }
             }
         }
+        return new Listing(ref, modules, packages);
     }
 
-    private static InputStream getDecodedStream(URLConnection conn)
+    static InputStream getDecodedStream(URLConnection conn)
         throws IOException {
         return decode(conn.getInputStream(), conn.getContentEncoding());
     }
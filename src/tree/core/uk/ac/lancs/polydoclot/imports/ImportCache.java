@@ -0,0 +1,311 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+
+package uk.ac.lancs.polydoclot.imports;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps copies of imported installations' meta-data in a directory, so
+ * that they need not be downloaded again on later runs. Each resource
+ * is stored with its entity tag and modification time, which are used
+ * to revalidate it with a conditional request. If the server cannot be
+ * reached, the stored copy is used.
+ * 
+ * <p>
+ * Only HTTP and HTTPS resources are cached. Each is stored as a pair
+ * of files named after a digest of its URI, one holding its decoded
+ * content, and the other holding its meta-data as properties. The
+ * absence of a resource is also recorded, as installations often lack
+ * some of the meta-data files.
+ * 
+ * @author simpsons
+ */
+public final class ImportCache {
+    private final Path dir;
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    private final AtomicInteger revalidations = new AtomicInteger();
+
+    private final AtomicInteger fallbacks = new AtomicInteger();
+
+    /**
+     * Create a cache in a directory.
+     * 
+     * @param dir the directory to hold cached resources
+     * 
+     * @throws IOException if the directory could not be created
+     */
+    public ImportCache(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    /**
+     * A fetched resource
+     * 
+     * @author simpsons
+     */
+    public static final class Resource {
+        /**
+         * The media type of the resource, possibly with parameters, or
+         * {@code null} if not known
+         */
+        public final String contentType;
+
+        /**
+         * The content of the resource, with any content encoding
+         * removed
+         */
+        public final InputStream content;
+
+        Resource(String contentType, InputStream content) {
+            this.contentType = contentType;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Get the number of resources downloaded in full.
+     * 
+     * @return the number of resources downloaded
+     */
+    public int getDownloadCount() {
+        return downloads.get();
+    }
+
+    /**
+     * Get the number of resources whose stored copies were confirmed
+     * as current by the server.
+     * 
+     * @return the number of resources revalidated
+     */
+    public int getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     * Get the number of resources whose stored copies were used
+     * because the server could not be reached.
+     * 
+     * @return the number of resources served offline
+     */
+    public int getFallbackCount() {
+        return fallbacks.get();
+    }
+
+    private static final String URI_FIELD = "uri";
+
+    private static final String ETAG_FIELD = "etag";
+
+    private static final String LAST_MODIFIED_FIELD = "last-modified";
+
+    private static final String TYPE_FIELD = "content-type";
+
+    private static final String MISSING_FIELD = "missing";
+
+    private String keyOf(URI loc) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash =
+                digest.digest(loc.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                result.append(String.format("%02x", b & 0xff));
+            return result.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError("unreachable", ex);
+        }
+    }
+
+    /**
+     * Determine whether a location is cacheable.
+     * 
+     * @param loc the location of the resource
+     * 
+     * @return {@code true} if the resource is cacheable
+     */
+    public static boolean isCacheable(URI loc) {
+        String scheme = loc.getScheme();
+        return "http".equalsIgnoreCase(scheme) ||
+            "https".equalsIgnoreCase(scheme);
+    }
+
+    /**
+     * Fetch a resource, revalidating any stored copy, or using it if
+     * the server can't be contacted.
+     * 
+     * @param loc the location of the resource
+     * 
+     * @param timeout the timeout in milliseconds for connecting and
+     * reading; or 0 for no timeout
+     * 
+     * @return the resource's type and content
+     * 
+     * @throws FileNotFoundException if the resource does not exist
+     * 
+     * @throws IOException if the resource could not be fetched, and
+     * no copy is stored
+     */
+    public Resource fetch(URI loc, int timeout) throws IOException {
+        final String key = keyOf(loc);
+        final Path dataFile = dir.resolve(key + ".data");
+        final Path metaFile = dir.resolve(key + ".properties");
+
+        /* Load meta-data of any stored copy. */
+        Properties meta = new Properties();
+        try (Reader in = Files.newBufferedReader(metaFile,
+                                                 StandardCharsets.UTF_8)) {
+            meta.load(in);
+            if (!loc.toString().equals(meta.getProperty(URI_FIELD)) ||
+                !Files.exists(dataFile))
+                meta.clear();
+        } catch (NoSuchFileException ex) {
+            /* Nothing cached yet. */
+        }
+
+        try {
+            HttpURLConnection conn =
+                (HttpURLConnection) loc.toURL().openConnection();
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            conn.setRequestProperty("Accept-Encoding", "gzip");
+            String etag = meta.getProperty(ETAG_FIELD);
+            if (etag != null) conn.setRequestProperty("If-None-Match", etag);
+            String lastMod = meta.getProperty(LAST_MODIFIED_FIELD);
+            if (lastMod != null)
+                conn.setRequestProperty("If-Modified-Since", lastMod);
+
+            final int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED &&
+                !meta.isEmpty()) {
+                conn.getInputStream().close();
+                revalidations.incrementAndGet();
+                return stored(loc, dataFile, meta);
+            }
+            if (code == HttpURLConnection.HTTP_NOT_FOUND ||
+                code == HttpURLConnection.HTTP_GONE) {
+                /* Record the absence, so it can be reported offline. */
+                Properties newMeta = new Properties();
+                newMeta.setProperty(URI_FIELD, loc.toString());
+                newMeta.setProperty(MISSING_FIELD, "true");
+                store(dataFile, metaFile, new byte[0], newMeta);
+                throw new FileNotFoundException(loc.toString());
+            }
+
+            /* Store the new content, and its validators. */
+            byte[] content;
+            try (InputStream in = DocImport.getDecodedStream(conn)) {
+                content = in.readAllBytes();
+            }
+            Properties newMeta = new Properties();
+            newMeta.setProperty(URI_FIELD, loc.toString());
+            setIfPresent(newMeta, ETAG_FIELD, conn.getHeaderField("ETag"));
+            setIfPresent(newMeta, LAST_MODIFIED_FIELD,
+                         conn.getHeaderField("Last-Modified"));
+            setIfPresent(newMeta, TYPE_FIELD, conn.getContentType());
+            store(dataFile, metaFile, content, newMeta);
+            downloads.incrementAndGet();
+            return new Resource(conn.getContentType(),
+                                new ByteArrayInputStream(content));
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            if (meta.isEmpty()) throw ex;
+            fallbacks.incrementAndGet();
+            return stored(loc, dataFile, meta);
+        }
+    }
+
+    private static void setIfPresent(Properties props, String key,
+                                     String value) {
+        if (value != null) props.setProperty(key, value);
+    }
+
+    private static Resource stored(URI loc, Path dataFile, Properties meta)
+        throws IOException {
+        if (Boolean.parseBoolean(meta.getProperty(MISSING_FIELD)))
+            throw new FileNotFoundException(loc.toString());
+        return new Resource(meta.getProperty(TYPE_FIELD),
+                            new ByteArrayInputStream(Files
+                                .readAllBytes(dataFile)));
+    }
+
+    private void store(Path dataFile, Path metaFile, byte[] content,
+                       Properties meta)
+        throws IOException {
+        /* Write to temporary files, and move them into place, so that
+         * concurrent or interrupted runs never see partial entries. */
+        Path dataTmp = Files.createTempFile(dir, "entry", ".tmp");
+        Path metaTmp = Files.createTempFile(dir, "entry", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(dataTmp)) {
+                out.write(content);
+            }
+            try (Writer out =
+                Files.newBufferedWriter(metaTmp, StandardCharsets.UTF_8)) {
+                meta.store(out, null);
+            }
+            Files.move(dataTmp, dataFile,
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            Files.move(metaTmp, metaFile,
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(dataTmp);
+            Files.deleteIfExists(metaTmp);
+        }
+    }
+}
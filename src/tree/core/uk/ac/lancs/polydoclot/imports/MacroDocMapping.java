@@ -37,7 +37,8 @@
 package uk.ac.lancs.polydoclot.imports;
 
 import java.net.URI;
-import java.util.Properties;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.BiConsumer;
 
 import javax.lang.model.element.Element;
@@ -52,7 +53,7 @@ import uk.ac.lancs.polydoclot.util.MacroFormatter;
 public class MacroDocMapping implements DocMapping {
     private final URI docBase;
     private final MacroFormatter formatter;
-    private final BiConsumer<? super Properties, ? super Element> propertySetter;
+    private final BiConsumer<? super Map<String, String>, ? super Element> propertySetter;
 
     /**
      * Create a mapping based on a macro format.
@@ -64,7 +65,7 @@ public class MacroDocMapping implements DocMapping {
      * 
      * @param formatter the macro format
      */
-    public MacroDocMapping(BiConsumer<? super Properties, ? super Element> propertySetter,
+    public MacroDocMapping(BiConsumer<? super Map<String, String>, ? super Element> propertySetter,
                            URI docBase, MacroFormatter formatter) {
         this.propertySetter = propertySetter;
         this.docBase = docBase;
@@ -81,8 +82,8 @@ public class MacroDocMapping implements DocMapping {
      */
     @Override
     public URI locate(Element elem) {
-        Properties props = new Properties();
+        Map<String, String> props = new HashMap<>();
         propertySetter.accept(props, elem);
-        return docBase.resolve(formatter.format(props));
+        return docBase.resolve(formatter.format(props::get));
     }
 }
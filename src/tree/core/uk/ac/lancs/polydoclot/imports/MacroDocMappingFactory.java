@@ -37,6 +37,7 @@
 package uk.ac.lancs.polydoclot.imports;
 
 import java.net.URI;
+import java.util.Map;
 import java.util.Properties;
 import java.util.function.BiConsumer;
 
@@ -51,7 +52,7 @@ import uk.ac.lancs.polydoclot.util.MacroFormatter;
  * @author simpsons
  */
 public final class MacroDocMappingFactory implements DocMappingFactory {
-    private final BiConsumer<? super Properties, ? super Element> propertySetter;
+    private final BiConsumer<? super Map<String, String>, ? super Element> propertySetter;
     private final String propertyName;
     private final String defaultValue;
 
@@ -66,7 +67,7 @@ public final class MacroDocMappingFactory implements DocMappingFactory {
      *
      * @param propertyName the name of the property to use
      */
-    public MacroDocMappingFactory(BiConsumer<? super Properties, ? super Element> propertySetter,
+    public MacroDocMappingFactory(BiConsumer<? super Map<String, String>, ? super Element> propertySetter,
                                   String propertyName) {
         this(propertySetter, propertyName, null);
     }
@@ -82,7 +83,7 @@ public final class MacroDocMappingFactory implements DocMappingFactory {
      *
      * @param other the back-up factory if the property is not set
      */
-    public MacroDocMappingFactory(BiConsumer<? super Properties, ? super Element> propertySetter,
+    public MacroDocMappingFactory(BiConsumer<? super Map<String, String>, ? super Element> propertySetter,
                                   String propertyName, String defaultValue) {
         this.propertySetter = propertySetter;
         this.propertyName = propertyName;
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+
+package uk.ac.lancs.polydoclot.imports;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Maps package names to imported installations through a compact file,
+ * rather than through a map on the heap. The file holds the package
+ * names of all installations sorted by their UTF-8 encoding, each
+ * sharing a prefix with its predecessor, and with a full name at
+ * regular restart points. It is memory-mapped, and queried by binary
+ * search over the restart points followed by a short linear scan.
+ * 
+ * <p>
+ * The file also records the locations, meta-data and modules of the
+ * installations, so it can be reused on later runs without accessing
+ * them. It is only reused if it was built from the same sequence of
+ * imports. Delete it to force the installations to be accessed again.
+ * 
+ * @author simpsons
+ */
+public final class PackageIndex {
+    private static final int MAGIC = 0x50444958;
+
+    private static final int VERSION = 1;
+
+    private static final int RESTART_INTERVAL = 16;
+
+    private final List<DocReference> refs;
+
+    private final Map<String, DocReference> modules;
+
+    private final ByteBuffer data;
+
+    private final int[] restarts;
+
+    private final int size;
+
+    private PackageIndex(List<DocReference> refs,
+                         Map<String, DocReference> modules, ByteBuffer data,
+                         int[] restarts, int size) {
+        this.refs = refs;
+        this.modules = modules;
+        this.data = data;
+        this.restarts = restarts;
+        this.size = size;
+    }
+
+    /**
+     * Get the number of packages in the index.
+     * 
+     * @return the number of packages
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Populate a mapping from module name to the installations in the
+     * index.
+     * 
+     * @param modMap the module mapping to be populated
+     */
+    public void installModules(Map<? super String, ? super DocReference> modMap) {
+        modMap.putAll(modules);
+    }
+
+    /**
+     * Find the installation documenting a package. This method is
+     * thread-safe.
+     * 
+     * @param pkgName the package name
+     * 
+     * @return the installation documenting the package; or
+     * {@code null} if not in the index
+     */
+    public DocReference get(String pkgName) {
+        byte[] key = pkgName.getBytes(StandardCharsets.UTF_8);
+
+        /* Find the last restart point not after the key. */
+        int lo = 0, hi = restarts.length - 1, block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int pos = restarts[mid];
+            int[] cur = { pos };
+            readVarint(cur);
+            int len = readVarint(cur);
+            int cmp = compare(data, cur[0], len, key);
+            if (cmp == 0) return refs.get(readVarint(new int[] { cur[0]
+                + len }));
+            if (cmp < 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) return null;
+
+        /* Scan the block, rebuilding each name from its predecessor's
+         * prefix. */
+        int end =
+            block + 1 < restarts.length ? restarts[block + 1] : data.limit();
+        byte[] name = new byte[64];
+        int[] cur = { restarts[block] };
+        while (cur[0] < end) {
+            int shared = readVarint(cur);
+            int len = readVarint(cur);
+            if (shared + len > name.length)
+                name = Arrays.copyOf(name, Math.max(shared + len,
+                                                    name.length * 2));
+            for (int i = 0; i < len; i++)
+                name[shared + i] = data.get(cur[0] + i);
+            cur[0] += len;
+            int inst = readVarint(cur);
+            int cmp = Arrays.compareUnsigned(name, 0, shared + len, key, 0,
+                                             key.length);
+            if (cmp == 0) return refs.get(inst);
+            if (cmp > 0) break;
+        }
+        return null;
+    }
+
+    private static int compare(ByteBuffer buf, int pos, int len,
+                               byte[] key) {
+        int lim = Math.min(len, key.length);
+        for (int i = 0; i < lim; i++) {
+            int cmp = Integer.compare(buf.get(pos + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(len, key.length);
+    }
+
+    private int readVarint(int[] cur) {
+        int result = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = data.get(cur[0]++);
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+    }
+
+    private static void writeVarint(OutputStream out, int value)
+        throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Write the identities of a sequence of imports, so that an index
+     * built from them can be recognized.
+     */
+    private static void writeSpecification(DataOutputStream out,
+                                           List<? extends DocImport> imports)
+        throws IOException {
+        out.writeInt(imports.size());
+        for (DocImport imp : imports) {
+            out.writeUTF(imp.location.toString());
+            out.writeUTF(imp.cache.toString());
+            TreeSet<String> mods = new TreeSet<>(imp.manualMods);
+            out.writeInt(mods.size());
+            for (String mod : mods)
+                out.writeUTF(mod);
+        }
+    }
+
+    /**
+     * Build an index file from the listings of a sequence of imports.
+     * Where several installations document the same package or module,
+     * the later one takes precedence, as with
+     * {@link DocImport.Listing#install(Map, Map)}. The file is replaced
+     * atomically.
+     * 
+     * @param file the index file to write
+     * 
+     * @param imports the imports, in order
+     * 
+     * @param listings the imports' corresponding listings
+     * 
+     * @throws IOException if an I/O error occurs in writing the file
+     */
+    public static void write(Path file, List<? extends DocImport> imports,
+                             List<? extends DocImport.Listing> listings)
+        throws IOException {
+        /* Resolve conflicts as if installed in order. */
+        Map<String, Integer> pkgs = new HashMap<>();
+        Map<String, Integer> mods = new HashMap<>();
+        for (int i = 0; i < listings.size(); i++) {
+            DocImport.Listing listing = listings.get(i);
+            for (String mod : listing.modules)
+                mods.put(mod, i);
+            for (String pkg : listing.packages)
+                pkgs.put(pkg, i);
+        }
+
+        /* Write the header, identifying the imports, and describing
+         * each installation and its modules. */
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(headerBytes)) {
+            writeSpecification(out, imports);
+            for (int i = 0; i < listings.size(); i++) {
+                DocReference ref = listings.get(i).ref;
+                out.writeUTF(ref.location.toString());
+                out.writeUTF(imports.get(i).cache.toString());
+                out.writeInt(ref.properties.size());
+                for (String key : ref.properties.stringPropertyNames()) {
+                    out.writeUTF(key);
+                    out.writeUTF(ref.properties.getProperty(key));
+                }
+            }
+            out.writeInt(mods.size());
+            for (Map.Entry<String, Integer> entry : mods.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+
+        /* Sort the packages by their encodings, and write each as the
+         * length it shares with its predecessor, and the remainder. */
+        List<byte[]> names = new ArrayList<>(pkgs.size());
+        for (String pkg : pkgs.keySet())
+            names.add(pkg.getBytes(StandardCharsets.UTF_8));
+        names.sort(Arrays::compareUnsigned);
+        ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+        int[] restarts =
+            new int[(names.size() + RESTART_INTERVAL - 1) / RESTART_INTERVAL];
+        byte[] prev = new byte[0];
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i);
+            int shared = 0;
+            if (i % RESTART_INTERVAL == 0) {
+                restarts[i / RESTART_INTERVAL] = dataBytes.size();
+            } else {
+                int lim = Math.min(prev.length, name.length);
+                while (shared < lim && prev[shared] == name[shared])
+                    shared++;
+            }
+            writeVarint(dataBytes, shared);
+            writeVarint(dataBytes, name.length - shared);
+            dataBytes.write(name, shared, name.length - shared);
+            writeVarint(dataBytes, pkgs.get(new String(name,
+                                                       StandardCharsets.UTF_8)));
+            prev = name;
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, "index", ".tmp");
+        try {
+            try (DataOutputStream out =
+                new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(headerBytes.size());
+                headerBytes.writeTo(out);
+                out.writeInt(names.size());
+                out.writeInt(restarts.length);
+                for (int pos : restarts)
+                    out.writeInt(pos);
+                out.writeInt(dataBytes.size());
+                dataBytes.writeTo(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Open an index file, if it was built from the same sequence of
+     * imports.
+     * 
+     * @param file the index file to read
+     * 
+     * @param imports the imports, in order
+     * 
+     * @param mappingFactory a way to map program elements into URIs
+     * 
+     * @return the index; or {@code null} if the file does not exist,
+     * or was built from different imports
+     * 
+     * @throws IOException if an I/O error occurs in reading the file
+     */
+    public static PackageIndex open(Path file,
+                                    List<? extends DocImport> imports,
+                                    DocMappingFactory mappingFactory)
+        throws IOException {
+        ByteBuffer buf;
+        try (FileChannel chan =
+            FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        try {
+            return read(buf, imports, mappingFactory);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+            | URISyntaxException ex) {
+            throw new IOException("corrupt index " + file, ex);
+        }
+    }
+
+    private static PackageIndex read(ByteBuffer buf,
+                                     List<? extends DocImport> imports,
+                                     DocMappingFactory mappingFactory)
+        throws IOException,
+            URISyntaxException {
+        if (buf.remaining() < 12 || buf.getInt() != MAGIC ||
+            buf.getInt() != VERSION) return null;
+
+        /* Check that the index was built from the same imports. */
+        byte[] header = new byte[buf.getInt()];
+        buf.get(header);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(expected)) {
+            writeSpecification(out, imports);
+        }
+        byte[] spec = expected.toByteArray();
+        if (header.length < spec.length ||
+            !Arrays.equals(header, 0, spec.length, spec, 0, spec.length))
+            return null;
+
+        /* Recreate the installations' references and module
+         * mapping. */
+        List<DocReference> refs = new ArrayList<>(imports.size());
+        Map<String, DocReference> modules = new HashMap<>();
+        try (DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(header, spec.length,
+                                                         header.length
+                                                             - spec.length))) {
+            for (int i = 0; i < imports.size(); i++) {
+                URI location = new URI(in.readUTF());
+                URI cache = new URI(in.readUTF());
+                Properties props = new Properties();
+                for (int n = in.readInt(); n > 0; n--)
+                    props.setProperty(in.readUTF(), in.readUTF());
+                DocMapping mapping =
+                    mappingFactory.createMapping(location, cache, props);
+                refs.add(new DocReference(location, props, mapping));
+            }
+            for (int n = in.readInt(); n > 0; n--)
+                modules.put(in.readUTF(), refs.get(in.readInt()));
+        }
+
+        int size = buf.getInt();
+        int[] restarts = new int[buf.getInt()];
+        for (int i = 0; i < restarts.length; i++)
+            restarts[i] = buf.getInt();
+        int dataLen = buf.getInt();
+        ByteBuffer data = buf.slice(buf.position(), dataLen);
+        return new PackageIndex(refs, modules, data, restarts, size);
+    }
+}
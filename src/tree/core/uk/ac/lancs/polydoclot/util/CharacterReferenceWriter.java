@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+
+package uk.ac.lancs.polydoclot.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes HTML characters into bytes of a given character encoding.
+ * Characters not representable in the encoding are written as numeric
+ * character references, just as {@link HypertextEscaper} would escape
+ * them. No other escaping is performed, so mark-up passes through
+ * unchanged.
+ * 
+ * @author simpsons
+ */
+public final class CharacterReferenceWriter extends Writer {
+    private final OutputStream out;
+
+    private final CharsetEncoder encoder;
+
+    private final CharBuffer chars = CharBuffer.allocate(4096);
+
+    private final ByteBuffer bytes = ByteBuffer.allocate(8192);
+
+    private boolean closed = false;
+
+    /**
+     * Create a writer encoding into a byte stream.
+     * 
+     * @param out the destination for encoded bytes
+     * 
+     * @param charset the character encoding
+     */
+    public CharacterReferenceWriter(OutputStream out, Charset charset) {
+        this.out = out;
+        this.encoder =
+            charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("closed");
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int amount = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, amount);
+            off += amount;
+            len -= amount;
+            if (!chars.hasRemaining()) encodeBuffer(false);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int amount = Math.min(len, chars.remaining());
+            chars.put(str, off, off + amount);
+            off += amount;
+            len -= amount;
+            if (!chars.hasRemaining()) encodeBuffer(false);
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        chars.put((char) c);
+        if (!chars.hasRemaining()) encodeBuffer(false);
+    }
+
+    /**
+     * Encode the buffered characters, leaving behind only an incomplete
+     * surrogate pair if more input is expected.
+     */
+    private void encodeBuffer(boolean endOfInput) throws IOException {
+        chars.flip();
+        encode(chars, endOfInput);
+        chars.compact();
+    }
+
+    private void encode(CharBuffer src, boolean endOfInput)
+        throws IOException {
+        for (;;) {
+            CoderResult cr = encoder.encode(src, bytes, endOfInput);
+            if (cr.isOverflow()) {
+                drain();
+            } else if (cr.isUnmappable()) {
+                int cp = Character.codePointAt(src, 0);
+                src.position(src.position() + cr.length());
+                encode(CharBuffer.wrap("&#" + cp + ';'), endOfInput);
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        out.write(bytes.array(), bytes.arrayOffset() + bytes.position(),
+                  bytes.remaining());
+        bytes.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @default Complete characters are encoded and passed to the byte
+     * stream, which is then flushed.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        encodeBuffer(false);
+        drain();
+        out.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @default All remaining characters are encoded, the encoder is
+     * flushed, and the byte stream is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            encodeBuffer(true);
+            while (encoder.flush(bytes).isOverflow())
+                drain();
+            drain();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+}
@@ -114,5 +114,10 @@ public interface Escaper {
         public IntStream escape(IntStream in) {
             return in;
         }
+
+        @Override
+        public String escape(CharSequence in) {
+            return in.toString();
+        }
     };
 }
@@ -39,7 +39,9 @@ package uk.ac.lancs.polydoclot.util;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.IntStream;
@@ -54,14 +56,53 @@ import uk.ac.lancs.polydoclot.Slice;
  * @author simpsons
  */
 public final class HypertextEscaper implements Escaper {
-    private final CharsetEncoder encoder;
+    private final Charset charset;
+    private final long[] encodable;
     private final boolean doubleQuotes;
 
     private HypertextEscaper(Charset charset, boolean doubleQuotes) {
-        this.encoder = charset.newEncoder();
+        this.charset = charset;
+        this.encodable = encodableTable(charset);
         this.doubleQuotes = doubleQuotes;
     }
 
+    /**
+     * Records which characters of the Basic Multilingual Plane each
+     * encoding can represent, one bit per character
+     */
+    private static final Map<Charset, long[]> encodableTables =
+        new ConcurrentHashMap<>();
+
+    private static long[] encodableTable(Charset charset) {
+        return encodableTables.computeIfAbsent(charset, cs -> {
+            CharsetEncoder encoder = cs.newEncoder();
+            long[] table = new long[(Character.MAX_VALUE + 1) / 64];
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                if (Character.isSurrogate((char) c)) continue;
+                if (encoder.canEncode((char) c))
+                    table[c >>> 6] |= 1L << c;
+            }
+            return table;
+        });
+    }
+
+    /**
+     * Determine whether the encoding can represent a code point.
+     * Characters outside the Basic Multilingual Plane are rare, so they
+     * are checked with a fresh encoder.
+     * 
+     * @param cp the code point
+     * 
+     * @return {@code true} if the code point can be represented
+     * without escaping
+     */
+    private boolean canEncode(int cp) {
+        if (cp <= Character.MAX_VALUE)
+            return (encodable[cp >>> 6] & (1L << cp)) != 0;
+        return charset.newEncoder()
+            .canEncode(new String(Character.toChars(cp)));
+    }
+
     /**
      * Create an escaper for a given character encoding, ignoring double
      * quotes.
@@ -91,34 +132,70 @@ public final class HypertextEscaper implements Escaper {
         return new HypertextEscaper(charset, true);
     }
 
+    /**
+     * Get the replacement for a code point.
+     * 
+     * @param cp the code point
+     * 
+     * @return the replacement text, or {@code null} if the code point
+     * is to be left unchanged
+     */
+    private String replacement(int cp) {
+        switch (cp) {
+        case '"':
+            return doubleQuotes ? "&quot;" : null;
+        case '&':
+            return "&amp;";
+        case '<':
+            return "&lt;";
+        case '>':
+            return "&gt;";
+        }
+        if (canEncode(cp)) return null;
+
+        /* Use a numeric character entity. */
+        return "&#" + cp + ';';
+    }
+
     @Override
     public IntStream escape(IntStream in) {
         return in.flatMap(cp -> {
-            switch (cp) {
-            case '"':
-                if (!doubleQuotes) break;
-                return "&quot;".codePoints();
-            case '&':
-                return "&amp;".codePoints();
-            case '<':
-                return "&lt;".codePoints();
-            case '>':
-                return "&gt;".codePoints();
-            }
-
-            /* Convert the code point to a string, usually of just one
-             * character, but sometimes with surrogates. */
-            String s = new String(Character.toChars(cp));
-
-            /* Check whether the charset supports this string. If so,
-             * make no change. */
-            if (encoder.canEncode(s)) return s.codePoints();
-
-            /* Use a numeric character entity. */
-            return ("&#" + cp + ';').codePoints();
+            String rep = replacement(cp);
+            if (rep == null) return IntStream.of(cp);
+            return rep.codePoints();
         });
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @default The input is scanned for the first character needing an
+     * escape. If there is none, the input is returned as a string.
+     * Otherwise, runs of characters needing no escape are appended
+     * whole between the replacements.
+     */
+    @Override
+    public String escape(CharSequence in) {
+        final int len = in.length();
+        StringBuilder result = null;
+        int done = 0;
+        for (int i = 0; i < len;) {
+            final int cp = Character.codePointAt(in, i);
+            final int next = i + Character.charCount(cp);
+            String rep = replacement(cp);
+            if (rep != null) {
+                if (result == null) result = new StringBuilder(len + 16);
+                result.append(in, done, i);
+                result.append(rep);
+                done = next;
+            }
+            i = next;
+        }
+        if (result == null) return in.toString();
+        result.append(in, done, len);
+        return result.toString();
+    }
+
     private static final Pattern hexEnt =
         Pattern.compile("^(?:(?:#[xX](?<xcode>[a-fA-F0-9]+))"
             + "|(?:#(?<code>[0-9]+))" + "|(?<ref>.*))$");
@@ -135,6 +212,16 @@ public final class HypertextEscaper implements Escaper {
         }
     }
 
+    private static int validCodePoint(String text, int radix) {
+        try {
+            int codePoint = Integer.parseInt(text, radix);
+            return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        } catch (NumberFormatException ex) {
+            /* The reference is too long to be a code point. */
+            return -1;
+        }
+    }
+
     /**
      * Decode an HTML entity/character reference.
      * 
@@ -150,11 +237,11 @@ public final class HypertextEscaper implements Escaper {
 
         /* Try decoding the hexadecimal part. */
         String hexText = m.group("xcode");
-        if (hexText != null) return Integer.parseInt(hexText, 16);
+        if (hexText != null) return validCodePoint(hexText, 16);
 
         /* Try decoding the decimal part. */
         String decText = m.group("code");
-        if (decText != null) return Integer.parseInt(decText, 10);
+        if (decText != null) return validCodePoint(decText, 10);
 
         String value = hypertextEntityReferences.getProperty(m.group("ref"));
         if (value == null) return -1;
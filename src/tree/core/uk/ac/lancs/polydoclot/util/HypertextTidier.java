@@ -0,0 +1,696 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+
+package uk.ac.lancs.polydoclot.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes and indents HTML 4.01 without invoking an external
+ * program. The result is intended to be equivalent to that of running
+ * HTMLTidy with <kbd>-i -q --wrap 0</kbd>: elements whose end tags were
+ * omitted or misplaced are closed, stray end tags are dropped, bare
+ * ampersands and less-than signs are escaped, and block elements are
+ * placed on their own lines, indented by their depth. Elements
+ * containing only in-line content are written on a single line, and
+ * the content of <code>&lt;pre&gt;</code>, <code>&lt;textarea&gt;</code>,
+ * <code>&lt;script&gt;</code> and <code>&lt;style&gt;</code> is
+ * preserved.
+ * 
+ * <p>
+ * Diagnostics are written in a form similar to HTMLTidy's, with line
+ * and column numbers referring to the input, and the result of
+ * {@link #tidy(CharSequence, Appendable, Appendable)} corresponds to
+ * HTMLTidy's exit code.
+ * 
+ * @author simpsons
+ */
+public final class HypertextTidier {
+    /**
+     * Indicates that the input required no correction
+     */
+    public static final int OKAY = 0;
+
+    /**
+     * Indicates that the input was corrected, and warnings were issued
+     */
+    public static final int WARNINGS = 1;
+
+    /**
+     * Indicates that the input could not be fully recovered, and errors
+     * were issued
+     */
+    public static final int ERRORS = 2;
+
+    private static final String INDENT = "  ";
+
+    private static final Set<String> VOID_ELEMENTS =
+        Set.of("area", "base", "basefont", "br", "col", "frame", "hr", "img",
+               "input", "isindex", "link", "meta", "param");
+
+    private static final Set<String> PARAGRAPH_BREAKERS =
+        Set.of("address", "blockquote", "center", "div", "dl", "fieldset",
+               "form", "h1", "h2", "h3", "h4", "h5", "h6", "hr", "menu", "dir",
+               "noscript", "ol", "p", "pre", "table", "ul");
+
+    private static final Set<String> BLOCK_ELEMENTS;
+
+    static {
+        Set<String> block = new HashSet<>(PARAGRAPH_BREAKERS);
+        block.addAll(Set.of("html", "head", "body", "title", "meta", "link",
+                            "base", "style", "script", "li", "dt", "dd",
+                            "caption", "thead", "tbody", "tfoot", "tr", "td",
+                            "th", "col", "colgroup", "legend", "option",
+                            "optgroup", "frameset", "frame", "noframes"));
+        BLOCK_ELEMENTS = Set.copyOf(block);
+    }
+
+    private static final Set<String> RAW_TEXT_ELEMENTS =
+        Set.of("script", "style");
+
+    private static final Set<String> PREFORMATTED_ELEMENTS =
+        Set.of("pre", "textarea", "script", "style");
+
+    private static final Set<String> OPTIONAL_END_ELEMENTS =
+        Set.of("html", "head", "body", "p", "li", "dt", "dd", "tr", "td",
+               "th", "thead", "tbody", "tfoot", "colgroup", "option");
+
+    /**
+     * Describes which open elements are implicitly closed by the start
+     * of another, and which enclosing elements limit the search.
+     */
+    private static final class Implication {
+        final Set<String> closes;
+
+        final Set<String> scope;
+
+        Implication(Set<String> closes, Set<String> scope) {
+            this.closes = closes;
+            this.scope = scope;
+        }
+    }
+
+    private static final Map<String, Implication> IMPLIED_ENDS;
+
+    static {
+        Implication li = new Implication(Set.of("li"),
+                                         Set.of("ul", "ol", "menu", "dir"));
+        Implication dlItem =
+            new Implication(Set.of("dt", "dd"), Set.of("dl"));
+        Implication cell =
+            new Implication(Set.of("td", "th"), Set.of("tr", "table"));
+        Implication section = new Implication(Set
+            .of("thead", "tbody", "tfoot", "colgroup", "tr", "td", "th"),
+                                              Set.of("table"));
+        IMPLIED_ENDS = Map
+            .of("li", li, "dt", dlItem, "dd", dlItem, "td", cell, "th", cell,
+                "tr",
+                new Implication(Set.of("tr", "td", "th"),
+                                Set.of("table", "thead", "tbody", "tfoot")),
+                "thead", section, "tbody", section, "tfoot", section,
+                "option",
+                new Implication(Set.of("option"),
+                                Set.of("select", "optgroup")));
+    }
+
+    private static final Pattern ENTITY = Pattern
+        .compile("&(#[xX][0-9a-fA-F]+|#[0-9]+|[A-Za-z][A-Za-z0-9]*);");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private abstract static class Node {}
+
+    private static final class Text extends Node {
+        final String text;
+
+        final boolean preformatted;
+
+        Text(String text, boolean preformatted) {
+            this.text = text;
+            this.preformatted = preformatted;
+        }
+    }
+
+    /**
+     * Holds a comment, a document-type declaration or a processing
+     * instruction, which is reproduced verbatim.
+     */
+    private static final class Markup extends Node {
+        final String text;
+
+        Markup(String text) {
+            this.text = text;
+        }
+    }
+
+    private static final class Element extends Node {
+        final String name;
+
+        final String attributes;
+
+        final List<Node> children = new ArrayList<>();
+
+        private Boolean block;
+
+        Element(String name, String attributes) {
+            this.name = name;
+            this.attributes = attributes;
+        }
+
+        boolean isBlock() {
+            if (block == null)
+                block = BLOCK_ELEMENTS.contains(name) ||
+                    children.stream().anyMatch(HypertextTidier::isBlock);
+            return block;
+        }
+
+        String startTag() {
+            return '<' + name + attributes + '>';
+        }
+
+        String endTag() {
+            return "</" + name + '>';
+        }
+    }
+
+    private static boolean isBlock(Node node) {
+        if (node instanceof Element) return ((Element) node).isBlock();
+        return false;
+    }
+
+    private final CharSequence in;
+
+    private final Appendable log;
+
+    private int warnings, errors;
+
+    private final List<Element> open = new ArrayList<>();
+
+    private int preformattedDepth;
+
+    private int markPos, markLine = 1, markColumn = 1;
+
+    private HypertextTidier(CharSequence in, Appendable log) {
+        this.in = in;
+        this.log = log;
+    }
+
+    /**
+     * Tidy an HTML document.
+     * 
+     * @param in the complete source document
+     * 
+     * @param out the destination for the tidied document
+     * 
+     * @param log the destination for diagnostic messages, one per
+     * line; or {@code null} if they are to be discarded
+     * 
+     * @return {@link #OKAY} if no corrections were required;
+     * {@link #WARNINGS} if only warnings were issued; {@link #ERRORS}
+     * if any errors were issued
+     * 
+     * @throws IOException if an I/O error occurred in writing to the
+     * output or the log
+     */
+    public static int tidy(CharSequence in, Appendable out, Appendable log)
+        throws IOException {
+        HypertextTidier tidier = new HypertextTidier(in, log);
+        Element root = tidier.parse();
+        writeChildren(out, root, 0);
+        if (tidier.errors > 0) return ERRORS;
+        if (tidier.warnings > 0) return WARNINGS;
+        return OKAY;
+    }
+
+    private void warn(int pos, String msg) throws IOException {
+        warnings++;
+        message(pos, "Warning", msg);
+    }
+
+    private void error(int pos, String msg) throws IOException {
+        errors++;
+        message(pos, "Error", msg);
+    }
+
+    private void message(int pos, String level, String msg)
+        throws IOException {
+        if (log == null) return;
+        if (pos < markPos) {
+            markPos = 0;
+            markLine = 1;
+            markColumn = 1;
+        }
+        for (; markPos < pos; markPos++) {
+            if (in.charAt(markPos) == '\n') {
+                markLine++;
+                markColumn = 1;
+            } else {
+                markColumn++;
+            }
+        }
+        log.append("line ").append(Integer.toString(markLine))
+            .append(" column ").append(Integer.toString(markColumn))
+            .append(" - ").append(level).append(": ").append(msg)
+            .append('\n');
+    }
+
+    private Element top() {
+        return open.get(open.size() - 1);
+    }
+
+    private void push(Element elem) {
+        top().children.add(elem);
+        open.add(elem);
+        if (PREFORMATTED_ELEMENTS.contains(elem.name)) preformattedDepth++;
+    }
+
+    private Element pop() {
+        Element elem = open.remove(open.size() - 1);
+        if (PREFORMATTED_ELEMENTS.contains(elem.name)) preformattedDepth--;
+        return elem;
+    }
+
+    /**
+     * Close all elements above a given depth in the stack, warning of
+     * those whose end tags are not optional.
+     */
+    private void closeTo(int depth, int pos, String cause)
+        throws IOException {
+        while (open.size() > depth) {
+            Element elem = pop();
+            if (!OPTIONAL_END_ELEMENTS.contains(elem.name))
+                warn(pos, "missing " + elem.endTag() + cause);
+        }
+    }
+
+    private Element parse() throws IOException {
+        Element root = new Element(null, "");
+        open.add(root);
+        final int len = in.length();
+        int pos = 0;
+        while (pos < len) {
+            if (in.charAt(pos) != '<') {
+                int next = indexOf("<", pos);
+                if (next < 0) next = len;
+                addText(pos, next);
+                pos = next;
+            } else if (startsWith("<!--", pos)) {
+                int end = indexOf("-->", pos + 4);
+                if (end < 0) {
+                    error(pos, "unterminated comment");
+                    top().children.add(new Markup(in.subSequence(pos, len)
+                        .toString() + "-->"));
+                    pos = len;
+                } else {
+                    end += 3;
+                    top().children
+                        .add(new Markup(in.subSequence(pos, end).toString()));
+                    pos = end;
+                }
+            } else if (startsWith("<!", pos) || startsWith("<?", pos)) {
+                int end = indexOf(">", pos);
+                if (end < 0) {
+                    error(pos, "unterminated declaration");
+                    pos = len;
+                } else {
+                    end++;
+                    top().children
+                        .add(new Markup(in.subSequence(pos, end).toString()));
+                    pos = end;
+                }
+            } else if (startsWith("</", pos) && pos + 2 < len &&
+                Character.isLetter(in.charAt(pos + 2))) {
+                pos = parseEndTag(pos);
+            } else if (pos + 1 < len &&
+                Character.isLetter(in.charAt(pos + 1))) {
+                pos = parseStartTag(pos);
+            } else {
+                warn(pos, "unescaped < replaced by &lt;");
+                top().children.add(new Text("&lt;", preformattedDepth > 0));
+                pos++;
+            }
+        }
+        closeTo(1, len, "");
+        return root;
+    }
+
+    private boolean startsWith(String prefix, int pos) {
+        if (pos + prefix.length() > in.length()) return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (in.charAt(pos + i) != prefix.charAt(i)) return false;
+        return true;
+    }
+
+    private int indexOf(String sought, int from) {
+        final int limit = in.length() - sought.length();
+        for (int i = from; i <= limit; i++)
+            if (startsWith(sought, i)) return i;
+        return -1;
+    }
+
+    private int indexOfIgnoreCase(String sought, int from) {
+        final int limit = in.length() - sought.length();
+        outer: for (int i = from; i <= limit; i++) {
+            for (int j = 0; j < sought.length(); j++)
+                if (Character.toLowerCase(in.charAt(i + j)) != sought
+                    .charAt(j)) continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    private void addText(int start, int end) throws IOException {
+        if (start == end) return;
+        top().children.add(new Text(fixEntities(start, end),
+                                    preformattedDepth > 0));
+    }
+
+    /**
+     * Escape ampersands that do not introduce a recognized entity or
+     * character reference.
+     */
+    private String fixEntities(int start, int end) throws IOException {
+        StringBuilder result = new StringBuilder(end - start);
+        Matcher m = ENTITY.matcher(in).region(start, end);
+        int pos = start;
+        while (pos < end) {
+            char c = in.charAt(pos);
+            if (c != '&') {
+                result.append(c);
+                pos++;
+                continue;
+            }
+            m.region(pos, end);
+            if (m.lookingAt() &&
+                HypertextEscaper.codePointForEntity(m.group(1)) >= 0) {
+                result.append(in, pos, m.end());
+                pos = m.end();
+                continue;
+            }
+            warn(pos, "unescaped & or unknown entity replaced by &amp;");
+            result.append("&amp;");
+            pos++;
+        }
+        return result.toString();
+    }
+
+    private int skipSpace(int pos) {
+        while (pos < in.length() && Character.isWhitespace(in.charAt(pos)))
+            pos++;
+        return pos;
+    }
+
+    private int scanName(int pos) {
+        while (pos < in.length()) {
+            char c = in.charAt(pos);
+            if (Character.isLetterOrDigit(c) || c == '-' || c == ':' ||
+                c == '_' || c == '.')
+                pos++;
+            else
+                break;
+        }
+        return pos;
+    }
+
+    private int parseEndTag(final int start) throws IOException {
+        int pos = start + 2;
+        int nameEnd = scanName(pos);
+        String name = in.subSequence(pos, nameEnd).toString().toLowerCase();
+        int end = indexOf(">", nameEnd);
+        if (end < 0) {
+            error(start, "unterminated end tag </" + name);
+            end = in.length();
+        } else {
+            end++;
+        }
+
+        if (!VOID_ELEMENTS.contains(name)) {
+            for (int i = open.size() - 1; i > 0; i--) {
+                if (!open.get(i).name.equals(name)) continue;
+                closeTo(i + 1, start, " before </" + name + '>');
+                pop();
+                return end;
+            }
+        }
+        warn(start, "discarding unexpected </" + name + '>');
+        return end;
+    }
+
+    private int parseStartTag(final int start) throws IOException {
+        final int len = in.length();
+        int pos = start + 1;
+        int nameEnd = scanName(pos);
+        final String name =
+            in.subSequence(pos, nameEnd).toString().toLowerCase();
+        pos = nameEnd;
+
+        /* Gather and normalize the attributes. */
+        StringBuilder attrs = new StringBuilder();
+        Collection<String> seen = new HashSet<>();
+        boolean selfClosing = false;
+        for (;;) {
+            pos = skipSpace(pos);
+            if (pos >= len) {
+                error(start, "<" + name + "> missing '>' for end of tag");
+                return len;
+            }
+            char c = in.charAt(pos);
+            if (c == '>') {
+                pos++;
+                break;
+            }
+            if (c == '/' && pos + 1 < len && in.charAt(pos + 1) == '>') {
+                selfClosing = true;
+                pos += 2;
+                break;
+            }
+            int attrStart = pos;
+            int attrEnd = scanName(pos);
+            if (attrEnd == attrStart) {
+                warn(pos, "<" + name + "> unexpected '" + c + "' in tag");
+                pos++;
+                continue;
+            }
+            String attrName =
+                in.subSequence(attrStart, attrEnd).toString().toLowerCase();
+            pos = skipSpace(attrEnd);
+            String value = null;
+            if (pos < len && in.charAt(pos) == '=') {
+                pos = skipSpace(pos + 1);
+                if (pos < len &&
+                    (in.charAt(pos) == '"' || in.charAt(pos) == '\'')) {
+                    char quote = in.charAt(pos);
+                    int close = indexOf(String.valueOf(quote), pos + 1);
+                    if (close < 0) {
+                        error(pos, "<" + name + "> attribute " + attrName
+                            + " lacks closing quote");
+                        return len;
+                    }
+                    value = fixEntities(pos + 1, close);
+                    pos = close + 1;
+                } else {
+                    int valueStart = pos;
+                    while (pos < len && !Character.isWhitespace(in
+                        .charAt(pos)) && in.charAt(pos) != '>')
+                        pos++;
+                    value = fixEntities(valueStart, pos);
+                }
+            }
+            if (!seen.add(attrName)) {
+                warn(attrStart, "<" + name + "> dropping repeated attribute "
+                    + attrName);
+                continue;
+            }
+            attrs.append(' ').append(attrName);
+            if (value != null)
+                attrs.append("=\"").append(value.replace("\"", "&quot;"))
+                    .append('"');
+        }
+
+        /* Close elements whose end tags are implied by this one. */
+        Implication impl = IMPLIED_ENDS.get(name);
+        if (impl != null) {
+            int target = -1;
+            for (int i = open.size() - 1; i > 0; i--) {
+                String openName = open.get(i).name;
+                if (impl.scope.contains(openName)) break;
+                if (impl.closes.contains(openName)) target = i;
+            }
+            if (target > 0) closeTo(target, start, " before <" + name + '>');
+        }
+        if (PARAGRAPH_BREAKERS.contains(name) && top().name != null &&
+            top().name.equals("p"))
+            pop();
+
+        Element elem = new Element(name, attrs.toString());
+        if (VOID_ELEMENTS.contains(name)) {
+            top().children.add(elem);
+            return pos;
+        }
+        push(elem);
+        if (selfClosing) {
+            pop();
+            return pos;
+        }
+
+        /* Take the content of script and style literally. */
+        if (RAW_TEXT_ELEMENTS.contains(name)) {
+            int end = indexOfIgnoreCase("</" + name, pos);
+            if (end < 0) {
+                error(start, "missing </" + name + '>');
+                end = len;
+            }
+            if (end > pos)
+                elem.children.add(new Text(in.subSequence(pos, end)
+                    .toString(), true));
+            pop();
+            if (end == len) return len;
+            int close = indexOf(">", end);
+            return close < 0 ? len : close + 1;
+        }
+        return pos;
+    }
+
+    private static void indent(Appendable out, int depth) throws IOException {
+        for (int i = 0; i < depth; i++)
+            out.append(INDENT);
+    }
+
+    private static void writeBlock(Appendable out, Node node, int depth)
+        throws IOException {
+        indent(out, depth);
+        if (node instanceof Markup) {
+            out.append(((Markup) node).text).append('\n');
+            return;
+        }
+        Element elem = (Element) node;
+        out.append(elem.startTag());
+        if (VOID_ELEMENTS.contains(elem.name)) {
+            out.append('\n');
+            return;
+        }
+        if (PREFORMATTED_ELEMENTS.contains(elem.name)) {
+            StringBuilder buf = new StringBuilder();
+            for (Node child : elem.children)
+                appendInline(buf, child, true, "");
+            out.append(buf).append(elem.endTag()).append('\n');
+            return;
+        }
+        if (elem.children.stream().noneMatch(HypertextTidier::isBlock)) {
+            StringBuilder buf = new StringBuilder();
+            String childIndent = INDENT.repeat(depth + 1);
+            for (Node child : elem.children)
+                appendInline(buf, child, false, childIndent);
+            out.append(buf.toString().strip()).append(elem.endTag())
+                .append('\n');
+            return;
+        }
+        out.append('\n');
+        writeChildren(out, elem, elem.name.equals("html") ? depth : depth + 1);
+        indent(out, depth);
+        out.append(elem.endTag()).append('\n');
+    }
+
+    /**
+     * Write the children of an element, each block on its own line, and
+     * each run of in-line content on a line of its own.
+     */
+    private static void writeChildren(Appendable out, Element elem,
+                                      int depth)
+        throws IOException {
+        String lineIndent = INDENT.repeat(depth);
+        StringBuilder run = new StringBuilder();
+        for (Node child : elem.children) {
+            if (isBlock(child)) {
+                flushRun(out, run, lineIndent);
+                writeBlock(out, child, depth);
+            } else {
+                appendInline(run, child, false, lineIndent);
+            }
+        }
+        flushRun(out, run, lineIndent);
+    }
+
+    private static void flushRun(Appendable out, StringBuilder run,
+                                 String lineIndent)
+        throws IOException {
+        String line = run.toString().strip();
+        run.setLength(0);
+        if (line.isEmpty()) return;
+        out.append(lineIndent).append(line).append('\n');
+    }
+
+    private static void appendInline(StringBuilder out, Node node,
+                                     boolean preformatted, String lineIndent) {
+        if (node instanceof Text) {
+            Text text = (Text) node;
+            if (preformatted || text.preformatted) {
+                out.append(text.text);
+                return;
+            }
+            String collapsed = WHITESPACE.matcher(text.text).replaceAll(" ");
+            if (collapsed.startsWith(" ") && (out.length() == 0 ||
+                Character.isWhitespace(out.charAt(out.length() - 1))))
+                collapsed = collapsed.substring(1);
+            out.append(collapsed);
+            return;
+        }
+        if (node instanceof Markup) {
+            out.append(((Markup) node).text);
+            return;
+        }
+        Element elem = (Element) node;
+        out.append(elem.startTag());
+        if (VOID_ELEMENTS.contains(elem.name)) {
+            if (!preformatted && elem.name.equals("br"))
+                out.append('\n').append(lineIndent);
+            return;
+        }
+        boolean innerPre =
+            preformatted || PREFORMATTED_ELEMENTS.contains(elem.name);
+        for (Node child : elem.children)
+            appendInline(out, child, innerPre, lineIndent);
+        out.append(elem.endTag());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018,2019, Lancaster University
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *  * Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the
+ *    distribution.
+ * 
+ *  * Neither the name of the copyright holder nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * Author: Steven Simpson <https://github.com/simpsonst>
+ */
+package uk.ac.lancs.polydoclot.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Writes to a file only if its content would change. Content is
+ * buffered until the stream is closed, and then compared with the
+ * existing file, if any. The file is only replaced if it is absent, or
+ * differs in length or content, so an identical file keeps its
+ * modification time.
+ * 
+ * @author simpsons
+ */
+public final class IfChangedOutputStream extends OutputStream {
+    private final Path file;
+
+    private final Consumer<? super Boolean> outcome;
+
+    private final ByteArrayOutputStream buffer =
+        new ByteArrayOutputStream(16 * 1024);
+
+    private boolean closed = false;
+
+    /**
+     * Prepare to write to a file if its content changes.
+     * 
+     * @param file the destination file
+     * 
+     * @param outcome invoked on closing with {@code true} if the file
+     * was written, or {@code false} if it was left unchanged
+     */
+    public IfChangedOutputStream(Path file,
+                                 Consumer<? super Boolean> outcome) {
+        this.file = file;
+        this.outcome = outcome;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) throw new IOException("closed");
+        buffer.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("closed");
+        buffer.write(b, off, len);
+    }
+
+    /**
+     * Compare the buffered content with the file, and replace the file
+     * if they differ.
+     * 
+     * @throws IOException if the file could not be read or written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (matches()) {
+            outcome.accept(false);
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            buffer.writeTo(out);
+        }
+        outcome.accept(true);
+    }
+
+    private boolean matches() throws IOException {
+        final byte[] content = buffer.toByteArray();
+        try {
+            if (Files.size(file) != content.length) return false;
+        } catch (NoSuchFileException ex) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buf = new byte[8192];
+            int pos = 0;
+            int got;
+            while ((got = in.read(buf)) >= 0) {
+                if (pos + got > content.length) return false;
+                for (int i = 0; i < got; i++)
+                    if (buf[i] != content[pos + i]) return false;
+                pos += got;
+            }
+            return pos == content.length;
+        }
+    }
+}
@@ -39,6 +39,7 @@ package uk.ac.lancs.polydoclot.util;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.regex.Pattern;
 
 /**
  * Converts properties into a string according to some scheme specified
@@ -323,15 +324,38 @@ public class MacroFormatter {
         rootElement = optimize(rootSequence);
     }
 
-    private List<Escaper> escapers = new ArrayList<>();
+    /**
+     * Every literal in the format, so that escaping can be applied once
+     * in advance, rather than on every expansion
+     */
+    private final List<LiteralElement> literals = new ArrayList<>();
 
     /**
-     * Add an additional level of escaping to literal content.
+     * Add an additional level of escaping to literal content. This
+     * should be called before the formatter is used.
      * 
      * @param escaper the escaping to be applied
      */
     public void escape(Escaper escaper) {
-        escapers.add(escaper);
+        for (LiteralElement lit : literals)
+            lit.data = escaper.escape(lit.data);
+    }
+
+    /**
+     * Supplies named parameters to a formatter.
+     * 
+     * @author simpsons
+     */
+    @FunctionalInterface
+    public interface Parameters {
+        /**
+         * Get the value of a parameter.
+         * 
+         * @param name the parameter name
+         * 
+         * @return the parameter's value, or {@code null} if not set
+         */
+        String get(String name);
     }
 
     private static Element optimize(List<? extends Element> elements) {
@@ -512,21 +536,42 @@ public class MacroFormatter {
     }
 
     private interface Element {
-        CharSequence expand(Properties params);
+        void expand(Parameters params, StringBuilder out);
+
+        /**
+         * Get the expansion as a string.
+         * 
+         * @default A fresh builder is passed to
+         * {@link #expand(Parameters, StringBuilder)}, and its contents
+         * are returned.
+         * 
+         * @param params the parameters to expand with
+         * 
+         * @return the expansion
+         */
+        default String expand(Parameters params) {
+            StringBuilder result = new StringBuilder();
+            expand(params, result);
+            return result.toString();
+        }
     }
 
     private class LiteralElement implements Element {
-        private final CharSequence data;
+        String data;
 
-        public LiteralElement(CharSequence data) {
+        public LiteralElement(String data) {
             this.data = data;
+            literals.add(this);
+        }
+
+        @Override
+        public void expand(Parameters params, StringBuilder out) {
+            out.append(data);
         }
 
-        public CharSequence expand(Properties params) {
-            CharSequence cs = data;
-            for (Escaper e : escapers)
-                cs = e.escape(cs);
-            return cs;
+        @Override
+        public String expand(Parameters params) {
+            return data;
         }
     }
 
@@ -537,11 +582,10 @@ public class MacroFormatter {
             this.components = components;
         }
 
-        public CharSequence expand(Properties params) {
-            StringBuilder result = new StringBuilder(100);
+        @Override
+        public void expand(Parameters params, StringBuilder out) {
             for (Element e : components)
-                result.append(e.expand(params));
-            return result;
+                e.expand(params, out);
         }
     }
 
@@ -552,12 +596,13 @@ public class MacroFormatter {
             this.name = name;
         }
 
-        public CharSequence expand(Properties params) {
-            String expandedName = name.expand(params).toString();
+        @Override
+        public void expand(Parameters params, StringBuilder out) {
+            String expandedName = name.expand(params);
             int i = 0;
-            while (params.getProperty(expandedName + '.' + i) != null)
+            while (params.get(expandedName + '.' + i) != null)
                 i++;
-            return "" + i;
+            out.append(i);
         }
     }
 
@@ -590,11 +635,12 @@ public class MacroFormatter {
             }
         }
 
-        public CharSequence expand(Properties params) {
-            String expandedName = name.expand(params).toString();
-            return params.getProperty(expandedName) != null ||
-                params.getProperty(expandedName + ".0") != null ?
-                    truth.expand(params) : falsehood.expand(params);
+        @Override
+        public void expand(Parameters params, StringBuilder out) {
+            String expandedName = name.expand(params);
+            (params.get(expandedName) != null ||
+                params.get(expandedName + ".0") != null ? truth : falsehood)
+                    .expand(params, out);
         }
     }
 
@@ -605,17 +651,23 @@ public class MacroFormatter {
             this.name = name;
         }
 
-        public CharSequence expand(Properties params) {
-            String expandedName = name.expand(params).toString();
-            String result = params.getProperty(expandedName);
-            if (result == null) return "";
-            return result;
+        @Override
+        public void expand(Parameters params, StringBuilder out) {
+            String result = params.get(name.expand(params));
+            if (result != null) out.append(result);
         }
     }
 
     private static class RegexElement implements Element {
         private final Element text, pattern, replacement;
 
+        /**
+         * The most recently compiled pattern, which is reused while the
+         * pattern expands to the same text, as it does when it doesn't
+         * depend on parameters
+         */
+        private volatile Pattern compiled;
+
         public RegexElement(List<? extends Element> args) {
             switch (args.size()) {
             default:
@@ -630,12 +682,17 @@ public class MacroFormatter {
             }
         }
 
-        public CharSequence expand(Properties params) {
-            String expandedText = text.expand(params).toString();
-            String expandedPattern = pattern.expand(params).toString();
-            String expandedReplacement = replacement.expand(params).toString();
-            return expandedText.replaceAll(expandedPattern,
-                                           expandedReplacement);
+        @Override
+        public void expand(Parameters params, StringBuilder out) {
+            String expandedText = text.expand(params);
+            String regex = pattern.expand(params);
+            Pattern expandedPattern = compiled;
+            if (expandedPattern == null ||
+                !expandedPattern.pattern().equals(regex))
+                compiled = expandedPattern = Pattern.compile(regex);
+            String expandedReplacement = replacement.expand(params);
+            out.append(expandedPattern.matcher(expandedText)
+                .replaceAll(expandedReplacement));
         }
     }
 
@@ -656,18 +713,17 @@ public class MacroFormatter {
             }
         }
 
-        public CharSequence expand(Properties params) {
-            String expandedText = text.expand(params).toString();
-            String expandedCount = count.expand(params).toString();
-            StringBuilder result = new StringBuilder(100);
+        @Override
+        public void expand(Parameters params, StringBuilder out) {
+            String expandedText = text.expand(params);
+            String expandedCount = count.expand(params);
             try {
                 int n = Integer.parseInt(expandedCount);
                 for (int i = 0; i < n; i++)
-                    result.append(expandedText);
+                    out.append(expandedText);
             } catch (NumberFormatException ex) {
                 /* Ignore silently. */
             }
-            return result;
         }
     }
 
@@ -696,25 +752,36 @@ public class MacroFormatter {
             }
         }
 
-        public CharSequence expand(Properties params) {
-            String expandedName = name.expand(params).toString();
-            String expandedVar = var.expand(params).toString();
-
-            StringBuilder result = new StringBuilder(100);
+        @Override
+        public void expand(Parameters params, StringBuilder out) {
+            String expandedName = name.expand(params);
+            String expandedVar = var.expand(params);
 
-            Properties temps = new Properties(params);
             String sep = "";
-            for (int i = 0; params.getProperty(expandedName + '.' + i) != null;
+            for (int i = 0; params.get(expandedName + '.' + i) != null;
                  i++) {
-                temps.setProperty(expandedVar, "" + i);
-                result.append(sep);
-                result.append(expansion.expand(temps));
-                sep = separator.expand(temps).toString();
+                final String index = Integer.toString(i);
+                Parameters temps =
+                    n -> n.equals(expandedVar) ? index : params.get(n);
+                out.append(sep);
+                expansion.expand(temps, out);
+                sep = separator.expand(temps);
             }
-            return result;
         }
     }
 
+    /**
+     * Determine whether this formatter's expansion is independent of
+     * its parameters, i.e., it contains no macros.
+     * 
+     * @return {@code true} if the expansion is always the same
+     */
+    public boolean isConstant() {
+        if (rootElement instanceof LiteralElement) return true;
+        return rootElement instanceof ConcatenationElement &&
+            ((ConcatenationElement) rootElement).components.isEmpty();
+    }
+
     /**
      * Convert named parameters into a string, according to this
      * object's scheme.
@@ -724,6 +791,30 @@ public class MacroFormatter {
      * @return the pattern expanded with the parameters
      */
     public String format(Properties params) {
-        return rootElement.expand(params).toString();
+        return format(params::getProperty);
+    }
+
+    /**
+     * Convert named parameters into a string, according to this
+     * object's scheme.
+     * 
+     * @param params the source of parameters to use in the expansion
+     * 
+     * @return the pattern expanded with the parameters
+     */
+    public String format(Parameters params) {
+        return rootElement.expand(params);
+    }
+
+    /**
+     * Convert named parameters into a string, according to this
+     * object's scheme, and append it to a builder.
+     * 
+     * @param params the source of parameters to use in the expansion
+     * 
+     * @param out the destination for the expansion
+     */
+    public void format(Parameters params, StringBuilder out) {
+        rootElement.expand(params, out);
     }
 }
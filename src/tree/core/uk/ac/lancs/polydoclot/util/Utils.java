@@ -36,6 +36,9 @@
 
 package uk.ac.lancs.polydoclot.util;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
@@ -203,4 +206,45 @@ public final class Utils {
         return URI.create(str);
     }
 
+    /**
+     * Create a stream that writes to two streams.
+     * 
+     * @param out the main destination
+     * 
+     * @param copy the stream to receive a copy of the data
+     * 
+     * @return a stream writing to both, and closing both when closed
+     */
+    public static OutputStream tee(OutputStream out, OutputStream copy) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                copy.write(b);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+                copy.close();
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+                copy.flush();
+            }
+
+            @Override
+            public void write(byte[] b) throws IOException {
+                write(b, 0, b.length);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                copy.write(b, off, len);
+            }
+        };
+    }
 }